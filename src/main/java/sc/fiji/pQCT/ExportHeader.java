@@ -28,6 +28,7 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT;
 
+import java.io.File;
 import java.util.StringTokenizer;
 
 import ij.IJ;
@@ -36,6 +37,7 @@ import ij.WindowManager;
 import ij.plugin.ImageInfo;
 import ij.plugin.PlugIn;
 import ij.text.TextPanel;
+import sc.fiji.pQCT.io.CTHeader;
 
 public class ExportHeader implements PlugIn {
 
@@ -75,8 +77,7 @@ public class ExportHeader implements PlugIn {
 			.length()) : "";
 		final String cName = "C" + nameSub;
 		try {
-			final CTHeaderReader ct = new CTHeaderReader(filePath + cName);
-			ct.read();
+			final CTHeader ct = CTHeader.read(new File(filePath + cName));
 			site = ct.site;
 			percent = ct.percent;
 		}
@@ -30,11 +30,10 @@ package sc.fiji.pQCT;
 
 import java.awt.Color;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.List;
 import java.util.StringTokenizer;
-import java.util.Vector;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.DoubleStream;
 
 import ij.IJ;
@@ -57,7 +56,10 @@ import sc.fiji.pQCT.analysis.DistributionAnalysis;
 import sc.fiji.pQCT.analysis.MassDistribution;
 import sc.fiji.pQCT.analysis.SoftTissueAnalysis;
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
 import sc.fiji.pQCT.io.ScaledImageData;
+import sc.fiji.pQCT.io.TypCalibrationRegistry;
+import sc.fiji.pQCT.selectroi.BoundingBox;
 import sc.fiji.pQCT.selectroi.RoiSelector;
 import sc.fiji.pQCT.selectroi.SelectROI;
 import sc.fiji.pQCT.selectroi.SelectSoftROI;
@@ -93,45 +95,14 @@ public class PqctAnalysis implements PlugIn {
 			// Read calibration from TYP file database
 			final String typFileName = getInfoProperty(imageInfo, "Device");
 			try {
-				final ClassLoader loader = getClass().getClassLoader();
-				final InputStream ir = loader.getResourceAsStream("typ/" + typFileName);
-				final byte[] typFileData = new byte[ir.available()];
-				ir.read(typFileData);
-				ir.close();
-				final String typFiledDataString = new String(typFileData, "ISO-8859-1");
-				// break the typFileDataString into lines
-				final StringTokenizer st = new StringTokenizer(typFiledDataString,
-					"\n");
-				final List<String> typFileLines = new Vector<>();
-				while (st.hasMoreTokens()) {
-					typFileLines.add(st.nextToken());
+				final double[] typCoefficients = TypCalibrationRegistry.getInstance()
+					.getCoefficients(typFileName);
+				if (typCoefficients == null) {
+					IJ.error(".TYP file not found");
 				}
-				// Search for XSlope and XInter
-				final String[] searchFor = { "XInter", "XSlope" };
-				for (int i = 0; i < searchFor.length; ++i) {
-					int index = 0;
-					String temp = typFileLines.get(index);
-					while (!temp.contains(searchFor[i]) && index < typFileLines.size()) {
-						++index;
-						temp = typFileLines.get(index);
-					}
-					if (temp.contains(searchFor[i])) { // Found line
-						final StringTokenizer st2 = new StringTokenizer(temp, "=");
-						final List<String> typFileLineTokens = new Vector<>();
-						while (st2.hasMoreTokens()) {
-							typFileLineTokens.add(st2.nextToken().trim());
-						}
-						calibrationCoefficients[i] = Double.valueOf(typFileLineTokens.get(
-							1));
-					}
-					else {
-						calibrationCoefficients[i] = i * 1000.0;
-					}
+				else {
+					calibrationCoefficients = typCoefficients;
 				}
-				calibrationCoefficients[1] /= 1000.0; // 1.495
-			}
-			catch (final NullPointerException npe) {
-				IJ.error(".TYP file not found");
 			}
 			catch (final IOException e) {
 				IJ.error(".TYP file could not be read");
@@ -178,6 +149,17 @@ public class PqctAnalysis implements PlugIn {
 			"Furthest_point", "All_Bones_Imax/Imin", "Not_selected_to_right",
 			"Selected_to_right" };
 		dialog.addChoice("Rotation_selection", rotationLabels, rotationLabels[0]); // "According_to_Imax/Imin"
+		// Float and Short use less memory per image, Short gives the same results
+		// as Double for 16-bit data
+		final String[] storageLabels = { "Double", "Float", "Short" };
+		dialog.addChoice("Pixel_storage", storageLabels, storageLabels[0]);
+		// Component labelling finds all the bones in one pass over the image
+		final String[] detectionLabels = { "Edge_tracing", "Component_labelling" };
+		dialog.addChoice("Bone_detection", detectionLabels, detectionLabels[0]);
+		// Both give the results of earlier versions, pixel crossings probe each
+		// pixel a ray crosses once instead of every 0.1 pixel step
+		final String[] marchingLabels = { "Legacy_0.1_steps", "Pixel_crossings" };
+		dialog.addChoice("Ray_marching", marchingLabels, marchingLabels[0]);
 
 		final String[] middleLabels = { "Analyse_cortical_results",
 			"Analyse_mass_distribution", "Analyse_concentric_density_distribution",
@@ -217,7 +199,7 @@ public class PqctAnalysis implements PlugIn {
 		for (int i = 0; i < thresholdsAndScaling.length; ++i) {
 			thresholdsAndScaling[i] = dialog.getNextNumber();
 		}
-		final String[] alignmentStrings = new String[3];
+		final String[] alignmentStrings = new String[6];
 		for (int i = 0; i < alignmentStrings.length; ++i) {
 			alignmentStrings[i] = dialog.getNextChoice();
 		}
@@ -281,7 +263,8 @@ public class PqctAnalysis implements PlugIn {
 		// Scale and 3x3 median filter the data
 		scaledImageData = new ScaledImageData(signedShort, imp.getWidth(), imp
 			.getHeight(), resolution, details.scalingFactor, details.constant,
-			details.flipHorizontal, details.flipVertical, details.noFiltering);
+			details.flipHorizontal, details.flipVertical, details.noFiltering,
+			ForkJoinPool.getCommonPoolParallelism(), details.pixelStorage);
 		RoiSelector roi = null;
 		RoiSelector softRoi = null;
 
@@ -341,8 +324,8 @@ public class PqctAnalysis implements PlugIn {
 			makeImage = false;
 		}
 		else {
-			resultImage = getRGBResultImage(roi.scaledImage, roi.width, roi.height,
-				imageSavePath);
+			resultImage = getRGBResultImage(roi.scaledImage.toArray(), roi.width,
+				roi.height, imageSavePath);
 			resultImage.setTitle(imp.getTitle() + "-result");
 		}
 		if (details.stOn) {
@@ -359,7 +342,8 @@ public class PqctAnalysis implements PlugIn {
 			results = printCorticalResults(results, cortAnalysis);
 			if (makeImage && resultImage != null) {
 				resultImage = tintBoneStratec(resultImage, roi.sieve, roi.scaledImage,
-					roi.details.marrowThreshold, cortAnalysis.cortexSieve);
+					roi.details.marrowThreshold, cortAnalysis.cortexSieve, roi.sieveBox
+						.union(cortAnalysis.cortexSieveBox));
 			}
 
 		}
@@ -470,14 +454,14 @@ public class PqctAnalysis implements PlugIn {
 
 	// Concentric rings distribution result image
 	private static ImagePlus drawPeriRadii(final ImagePlus tempImage,
-		final double[] marrowCenter, final Vector<Integer> pindColor,
+		final double[] marrowCenter, final int[] pindColor,
 		final double[] r, final double[] theta)
 	{
 		// Draw unrotated radii
 		for (int i = 0; i < theta.length; i++) {
 			final int x = ((int) (marrowCenter[0] + r[i] * Math.cos(theta[i])));
 			final int y = ((int) (marrowCenter[1] + r[i] * Math.sin(theta[i])));
-			final double colorScale = pindColor.get(i) / 359.0;
+			final double colorScale = pindColor[i] / 359.0;
 			tempImage.getProcessor().setColor(new Color(0, (int) (255.0 * colorScale),
 				(int) (255.0 * (1.0 - colorScale))));
 			tempImage.getProcessor().drawPixel(x, y);
@@ -486,14 +470,14 @@ public class PqctAnalysis implements PlugIn {
 	}
 
 	private static ImagePlus drawRadii(final ImagePlus tempImage,
-		final double[] marrowCenter, final Vector<Integer> pindColor,
+		final double[] marrowCenter, final int[] pindColor,
 		final double[] r, final double[] r2, final double[] theta)
 	{
 		// Draw unrotated radii
 		for (int i = 0; i < 360; i++) {
 			int x = ((int) (marrowCenter[0] + r[i] * Math.cos(theta[i])));
 			int y = ((int) (marrowCenter[1] + r[i] * Math.sin(theta[i])));
-			final double colorScale = pindColor.get(i) / 359.0;
+			final double colorScale = pindColor[i] / 359.0;
 			tempImage.getProcessor().setColor(new Color((int) (255.0 * colorScale), 0,
 				(int) (255.0 * (1.0 - colorScale))));
 			tempImage.getProcessor().drawPixel(x, y);
@@ -695,11 +679,12 @@ public class PqctAnalysis implements PlugIn {
 
 	// Add bone sieve Stratec
 	private static ImagePlus tintBoneStratec(final ImagePlus tempImage,
-		final byte[] sieve, final double[] scaledImage,
-		final double marrowThreshold, final byte[] stratecSieve)
+		final byte[] sieve, final PixelBuffer scaledImage,
+		final double marrowThreshold, final byte[] stratecSieve,
+		final BoundingBox box)
 	{
-		for (int y = 0; y < tempImage.getHeight(); ++y) {
-			for (int x = 0; x < tempImage.getWidth(); ++x) {
+		for (int y = box.minY; y <= box.maxY; ++y) {
+			for (int x = box.minX; x <= box.maxX; ++x) {
 				final int value = tempImage.getProcessor().getPixel(x, y);
 				final int[] rgb = new int[3];
 				for (int i = 0; i < 3; ++i) {
@@ -709,7 +694,7 @@ public class PqctAnalysis implements PlugIn {
 				if (sieve[index] == 1) {
 					// Tint bone area with purple
 					tempImage.getProcessor().setColor(new Color(rgb[2], 0, rgb[0]));
-					if (scaledImage[index] <= marrowThreshold) {
+					if (scaledImage.get(index) <= marrowThreshold) {
 						// Tint marrow area with green
 						if (rgb[0] < 255 - 50) {
 							rgb[0] += 50;
@@ -28,23 +28,19 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
-import javax.activation.UnsupportedDataTypeException;
 
 import ij.IJ;
 import ij.ImagePlus;
-import ij.gui.NewImage;
 import ij.io.FileInfo;
 import ij.io.OpenDialog;
 import ij.measure.Calibration;
 import ij.plugin.PlugIn;
+import ij.process.ShortProcessor;
+import sc.fiji.pQCT.io.StratecHeader;
+import sc.fiji.pQCT.io.StratecScan;
+import sc.fiji.pQCT.io.StratecSeries;
 
 // This file format is supported in SCIFIO already,
 // but we'll keep this plugin around for people who don't have it enabled.
@@ -52,26 +48,64 @@ import ij.plugin.PlugIn;
 // TODO Remove when ImageJ/Fiji comes with SCIFIO enabled by default
 public class ReadStratecFile extends ImagePlus implements PlugIn {
 
-	private static final int HEADER_LENGTH = 1609;
-	private String PatName;
-	private long PatNo;
-	private int PatMeasNo;
-	private long PatBirth;
-	private long MeasDate;
-	private double VoxelSize;
-	private int PicX0;
-	private int PicY0;
-	private int PicMatrixX;
-	private int PicMatrixY;
-	private String MeasInfo;
-	private String Device;
-	private String PatID;
-	private double ObjLen;
 	private String fileName;
 	private String properties;
+	// The pixels are only kept by the processor, not in a StratecScan too
+	private StratecHeader header;
+
+	public ReadStratecFile() {}
+
+	/**
+	 * Adapts a scan read without ImageJ into an ImagePlus, e.g. for showing it
+	 * in the GUI.
+	 *
+	 * @param scan a Stratec scan.
+	 */
+	public ReadStratecFile(final StratecScan scan) {
+		fileName = scan.header.fileName;
+		setScan(scan);
+	}
+
+	/**
+	 * Opens the series of image files the file belongs to as a virtual stack.
+	 * The slices are decoded only when they're shown or analysed.
+	 *
+	 * @param file an image file of the series.
+	 * @return the series as an image.
+	 * @throws IOException if the series can't be read.
+	 * @see StratecSeries#open(File)
+	 */
+	public static ImagePlus openSeries(final File file) throws IOException {
+		final StratecSeries series = StratecSeries.open(file);
+		final StratecHeader header = series.getHeader(1);
+		final ImagePlus image = new ImagePlus(header.fileName, series);
+		image.setProperty("Info", header.getInfo());
+		final StratecScan scan = series.getScan(1);
+		image.setDisplayRange(scan.getMin(), scan.getMax());
+		calibrate(image, header);
+		final FileInfo fi = new FileInfo();
+		fi.directory = header.directory;
+		fi.fileName = header.fileName;
+		fi.nImages = series.getSize();
+		fi.info = header.getInfo();
+		setFileInfo(fi, header);
+		image.setFileInfo(fi);
+		return image;
+	}
 
 	@Override
 	public void run(final String arg) {
+		if ("series".equals(arg)) {
+			final OpenDialog od = new OpenDialog("Select a file of the series (I*.M*)");
+			if (od.getFileName() == null) return;
+			try {
+				openSeries(new File(od.getDirectory(), od.getFileName())).show();
+			}
+			catch (final IOException e) {
+				IJ.error("Reading the Stratec series failed: " + e.getMessage());
+			}
+			return;
+		}
 		final String path;
 		if (!arg.isEmpty()) {
 			// Called by HandleExtraFileTypes
@@ -87,134 +121,67 @@ public class ReadStratecFile extends ImagePlus implements PlugIn {
 		}
 		if (fileName == null) return;
 		readFile(path);
-		fileInfo();
 		if (arg.isEmpty() && getHeight() > 0) {
 			show();
 		}
 	}
 
+	/** @return the header of the scan shown, or null if reading failed */
+	public StratecHeader getHeader() {
+		return header;
+	}
+
 	private void fileInfo() {
 		FileInfo fi = getFileInfo();
 		if (fi == null) {
 			fi = new FileInfo();
 		}
-		fi.pixelWidth = VoxelSize;
-		fi.pixelHeight = VoxelSize;
-		fi.width = PicMatrixX;
-		fi.height = PicMatrixY;
-		fi.valueUnit = "mm";
 		fi.fileName = fileName;
 		fi.info = properties;
+		setFileInfo(fi, header);
+		setFileInfo(fi);
+	}
+
+	private static void setFileInfo(final FileInfo fi,
+		final StratecHeader header)
+	{
+		fi.pixelWidth = header.voxelSize;
+		fi.pixelHeight = header.voxelSize;
+		fi.width = header.picMatrixX;
+		fi.height = header.picMatrixY;
+		fi.valueUnit = "mm";
 		fi.fileFormat = FileInfo.RAW;
 		fi.compression = FileInfo.COMPRESSION_NONE;
 		fi.fileType = FileInfo.GRAY16_SIGNED;
-		setFileInfo(fi);
 	}
 
-	private static String getNByteString(final ByteBuffer buffer, final int pos) {
-		buffer.position(pos);
-		final byte n = buffer.get();
-		final byte[] bytes = new byte[n];
-		buffer.get(bytes);
-		return new String(bytes);
+	private static void calibrate(final ImagePlus image,
+		final StratecHeader header)
+	{
+		final Calibration cal = image.getCalibration();
+		final double[] coefficients = { -32.768, 0.001 };
+		cal.setFunction(Calibration.STRAIGHT_LINE, coefficients, "1/cm");
+		cal.setUnit("mm");
+		cal.pixelWidth = cal.pixelHeight = cal.pixelDepth = header.voxelSize;
 	}
 
 	private void readFile(final String path) {
-		final File file = new File(path + fileName);
-		final int bytes = (int) file.length();
-		if (bytes < HEADER_LENGTH) {
-			IJ.error("Reading the Stratec file failed: File length < 1609 bytes.");
-			return;
-		}
-		try (final DataInputStream dataInputStream = new DataInputStream(
-			new BufferedInputStream(new FileInputStream(file))))
-		{
-			// Allocate memory for reading the file into memory
-			final byte[] data = new byte[bytes];
-			// Read the data to memory
-			dataInputStream.read(data, 0, bytes);
-			final ByteBuffer buffer = ByteBuffer.wrap(data).order(
-				ByteOrder.LITTLE_ENDIAN);
-			readHeader(buffer);
-			readImage(buffer, path);
+		try {
+			setScan(StratecScan.read(new File(path + fileName)));
 		}
 		catch (final IOException e) {
 			IJ.error("Reading the Stratec file failed: " + e.getMessage());
 		}
 	}
 
-	private void readHeader(final ByteBuffer buffer)
-		throws UnsupportedDataTypeException
-	{
-		Device = getNByteString(buffer, 1050);
-		if (!Device.toLowerCase().contains(".typ")) {
-			throw new UnsupportedDataTypeException("Device string not found.");
-		}
-		VoxelSize = buffer.getDouble(12);
-		ObjLen = buffer.getDouble(318);
-		MeasInfo = getNByteString(buffer, 662);
-		MeasDate = buffer.getInt(986);
-		PatMeasNo = buffer.getShort(1085);
-		PatNo = buffer.getInt(1087);
-		PatBirth = buffer.getInt(1091);
-		PatName = getNByteString(buffer, 1099);
-		PatID = getNByteString(buffer, 1282);
-		PicX0 = buffer.getShort(1525);
-		PicY0 = buffer.getShort(1527);
-		PicMatrixX = buffer.getShort(1529);
-		PicMatrixY = buffer.getShort(1531);
-	}
-
-	private void readImage(final ByteBuffer buffer, final String path) {
-		final ImagePlus tempImage = NewImage.createShortImage(fileName + " " +
-			Double.toString(VoxelSize), PicMatrixX, PicMatrixY, 1,
-			NewImage.FILL_BLACK);
-		setImage(tempImage.getImage());
-		setProcessor(fileName, tempImage.getProcessor());
-		setProperties(path);
-		final short[] pixels = (short[]) getProcessor().getPixels();
-		final int size = PicMatrixX * PicMatrixY;
-		int min = Short.MAX_VALUE;
-		int max = Short.MIN_VALUE;
-		buffer.position(HEADER_LENGTH);
-		for (int i = 0; i < size; i++) {
-			final int pixel = readSignedShort(buffer);
-			final int unsignedShort = pixel & 0xFFFF;
-			min = Math.min(min, unsignedShort);
-			max = Math.max(max, unsignedShort);
-			pixels[i] = (short) pixel;
-		}
-		setDisplayRange(min, max);
-		final Calibration cal = getCalibration();
-		final double[] coefficients = { -32.768, 0.001 };
-		cal.setFunction(Calibration.STRAIGHT_LINE, coefficients, "1/cm");
-		cal.setUnit("mm");
-		cal.pixelWidth = cal.pixelHeight = cal.pixelDepth = VoxelSize;
-	}
-
-	private static int readSignedShort(final ByteBuffer buffer) {
-		final int bitMask = 0x8000;
-		final short pixel = buffer.getShort();
-		return (pixel >= 0 ? -bitMask : bitMask - 1) + pixel;
-	}
-
-	private void setProperties(final String directory) {
-		final String[] propertyNames = { "File Name", "File Path", "Pixel Spacing",
-			"ObjLen", "MeasInfo", "Acquisition Date", "Device", "PatMeasNo", "PatNo",
-			"Patient's Birth Date", "Patient's Name", "Patient ID", "PicX0", "PicY0",
-			"Width", "Height", "Stratec File" };
-		final String[] propertyValues = { fileName, directory, Double.toString(
-			VoxelSize), Double.toString(ObjLen), MeasInfo, Long.toString(MeasDate),
-			Device, Integer.toString(PatMeasNo), Long.toString(PatNo), Long.toString(
-				PatBirth), PatName, PatID, Integer.toString(PicX0), Integer.toString(
-					PicY0), Integer.toString(PicMatrixX), Integer.toString(PicMatrixY),
-			"1" };
-		final StringBuilder builder = new StringBuilder();
-		for (int i = 0; i < propertyNames.length; ++i) {
-			builder.append(propertyNames[i]).append(": ").append(propertyValues[i])
-				.append("\n");
-		}
-		properties = builder.toString();
+	private void setScan(final StratecScan scan) {
+		header = scan.header;
+		setProcessor(fileName, new ShortProcessor(header.picMatrixX,
+			header.picMatrixY, scan.getPixels(), null));
+		properties = header.getInfo();
 		setProperty("Info", properties);
+		setDisplayRange(scan.getMin(), scan.getMax());
+		calibrate(this, header);
+		fileInfo();
 	}
 }
@@ -28,31 +28,56 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributeView;
 import java.util.Arrays;
-
-import javax.activation.UnsupportedDataTypeException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 import ij.IJ;
 import ij.Prefs;
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
+import sc.fiji.pQCT.io.StratecHeader;
 
 public class StripStratecFileHeader implements PlugIn {
 
+	private static final String MANIFEST_NAME = "strip_manifest.txt";
+	// Only the image files share the header layout of the offsets below
+	private static final Pattern IMAGE_FILE = Pattern.compile("I\\d+\\.M\\d+",
+		Pattern.CASE_INSENSITIVE);
+	// MeasInfo,PatBirth,PatMenoAge,PatName,PatTitle&Comment
+	private static final int[] FROM_INDICES = { 662, 1091, 1095, 1099, 1141 };
+	private static final int[] STRIP_LENGTHS = { 324, 4, 4, 41, 124 };
+
 	@Override
 	public void run(final String arg) {
+		if ("batch".equals(arg)) {
+			runBatch();
+			return;
+		}
 		final GenericDialog dialog = new GenericDialog("Strip Stratec Header");
-		// MeasInfo,PatBirth,PatMenoAge,PatName,PatTitle&Comment
-		dialog.addCheckbox("Strip_MeasInfo", false);
-		dialog.addCheckbox("Strip_PatBirth", false);
-		dialog.addCheckbox("Strip_PatMenoAge", false);
-		dialog.addCheckbox("Strip_PatName", true);
-		dialog.addCheckbox("Strip_PatTitleAndComment", false);
+		addStripCheckboxes(dialog);
 		dialog.addStringField("Stratec_file_to_strip", Prefs.getDefaultDirectory() +
 			"I0020001.m01", 60);
 		dialog.addStringField("File_save_name", Prefs.getDefaultDirectory() +
@@ -61,10 +86,7 @@ public class StripStratecFileHeader implements PlugIn {
 		if (!dialog.wasOKed()) {
 			return;
 		}
-		final boolean[] toStrip = new boolean[5];
-		for (int i = 0; i < toStrip.length; ++i) {
-			toStrip[i] = dialog.getNextBoolean();
-		}
+		final boolean[] toStrip = getStripCheckboxes(dialog);
 		final String fileIn = dialog.getNextString();
 		final String fileOut = dialog.getNextString();
 		if (fileIn == null || fileOut == null) {
@@ -77,54 +99,271 @@ public class StripStratecFileHeader implements PlugIn {
 			return;
 		}
 		try {
-			stripFile(fileIn, fileOut, toStrip);
+			stripFile(test, new File(fileOut), toStrip);
 		}
 		catch (final Exception err) {
 			IJ.error("Stratec file header stripping failed", err.getMessage());
 		}
 	}
 
-	private static void stripFile(final String fileNameIn,
-		final String fileNameOut, final boolean[] toStrip) throws Exception
+	/**
+	 * Strips the selected header fields of a Stratec file. The stripped header
+	 * is written to a new temporary file next to the output, the rest of the file
+	 * is copied after it channel to channel, and the temporary file is then
+	 * moved over the output. The patient details are thus never written out,
+	 * and a failed copy leaves no output behind. If the output is the input
+	 * file, its header is patched in place.
+	 *
+	 * @param fileIn the file to strip.
+	 * @param fileOut the stripped file.
+	 * @param toStrip MeasInfo, PatBirth, PatMenoAge, PatName, PatTitle&amp;Comment
+	 * @throws IOException if the file is shorter than the header, or reading or
+	 *           writing fails.
+	 */
+	public static void stripFile(final File fileIn, final File fileOut,
+		final boolean[] toStrip) throws IOException
 	{
-		final File fileIn = new File(fileNameIn);
-		final long fileLength = fileIn.length();
-		final byte[] fileData;
-		try (BufferedInputStream inputStream = new BufferedInputStream(
-			new FileInputStream(fileIn)))
+		if (fileOut.exists() && Files.isSameFile(fileIn.toPath(), fileOut
+			.toPath()))
 		{
-			final DataInputStream dataInputStream = new DataInputStream(inputStream);
-			fileData = new byte[(int) fileLength];
-			dataInputStream.read(fileData, 0, (int) fileLength);
+			try (final FileChannel channel = FileChannel.open(fileIn.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE))
+			{
+				final ByteBuffer header = strippedHeader(channel, toStrip);
+				while (header.hasRemaining()) {
+					channel.write(header, header.position());
+				}
+			}
+			return;
 		}
-		catch (final Exception e) {
-			throw new UnsupportedDataTypeException("Could not read input file.");
+		final Path target = fileOut.toPath().toAbsolutePath();
+		// Not Files.createTempFile, which makes the file readable by the owner
+		// only. The stripped files are shared, so they get the default
+		// permissions as they did when written with a FileOutputStream.
+		final Path temporary = target.resolveSibling(target.getFileName() + "." +
+			Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".tmp");
+		try {
+			try (final FileChannel in = FileChannel.open(fileIn.toPath(),
+				StandardOpenOption.READ); final FileChannel out = FileChannel.open(
+					temporary, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+			{
+				final ByteBuffer header = strippedHeader(in, toStrip);
+				while (header.hasRemaining()) {
+					out.write(header);
+				}
+				final long size = in.size();
+				long position = StratecHeader.HEADER_LENGTH;
+				while (position < size) {
+					position += in.transferTo(position, size - position, out);
+				}
+			}
+			// An output that is overwritten keeps its permissions
+			if (Files.exists(target) && Files.getFileStore(temporary)
+				.supportsFileAttributeView(PosixFileAttributeView.class))
+			{
+				Files.setPosixFilePermissions(temporary, Files
+					.getPosixFilePermissions(target));
+			}
+			Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE,
+				StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally {
+			Files.deleteIfExists(temporary);
 		}
-		stripHeader(fileData, toStrip); // Strip header
-		writeFile(fileNameOut, fileData);
 	}
 
-	// Writing dummy header containing sufficient details for the
-	// PqctAnalysis imageJ plugin, might not suffice for Geanie or
-	// Stratec software
-	private static void stripHeader(final byte[] data, final boolean[] toStrip) {
+	/**
+	 * Strips all the Stratec image files (I*.M*) in a directory tree with a
+	 * pool of worker threads. The relative paths of the stripped files are
+	 * appended to a manifest so that an interrupted run can be resumed by
+	 * calling the method again.
+	 *
+	 * @param inRoot the root of the tree to strip.
+	 * @param outRoot where the stripped tree is written, or null to patch the
+	 *          files in place.
+	 * @param toStrip MeasInfo, PatBirth, PatMenoAge, PatName, PatTitle&amp;Comment
+	 * @param threads the number of worker threads.
+	 * @return the number of files stripped, skipped as already done, and failed.
+	 * @throws IOException if walking the tree or writing the manifest fails.
+	 * @throws InterruptedException if interrupted while waiting for the workers.
+	 */
+	public static int[] stripDirectory(final File inRoot, final File outRoot,
+		final boolean[] toStrip, final int threads) throws IOException,
+		InterruptedException
+	{
+		final Path in = inRoot.toPath().toAbsolutePath().normalize();
+		final Path out = outRoot == null ? in : outRoot.toPath().toAbsolutePath()
+			.normalize();
+		Files.createDirectories(out);
+		final Path manifest = out.resolve(MANIFEST_NAME);
+		final Set<String> done = readManifest(manifest);
+		final AtomicInteger stripped = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final int[] skipped = { 0 };
+		// Bounded queue, the walking thread runs tasks itself when it's full
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+			threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads *
+				4), new ThreadPoolExecutor.CallerRunsPolicy());
+		try (final BufferedWriter writer = Files.newBufferedWriter(manifest,
+			StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+			StandardOpenOption.APPEND))
+		{
+			Files.walkFileTree(in, new SimpleFileVisitor<Path>() {
+
+				@Override
+				public FileVisitResult preVisitDirectory(final Path dir,
+					final BasicFileAttributes attributes)
+				{
+					// Don't descend into the output when it's inside the input
+					return !out.equals(in) && dir.equals(out)
+						? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(final Path path,
+					final BasicFileAttributes attributes)
+				{
+					if (!IMAGE_FILE.matcher(path.getFileName().toString()).matches()) {
+						return FileVisitResult.CONTINUE;
+					}
+					final String relative = in.relativize(path).toString();
+					if (done.contains(relative)) {
+						skipped[0]++;
+						return FileVisitResult.CONTINUE;
+					}
+					executor.execute(() -> {
+						try {
+							final Path target = out.resolve(relative);
+							Files.createDirectories(target.getParent());
+							stripFile(path.toFile(), target.toFile(), toStrip);
+							synchronized (writer) {
+								writer.write(relative);
+								writer.newLine();
+								writer.flush();
+							}
+							stripped.incrementAndGet();
+						}
+						catch (final IOException e) {
+							IJ.log("Stripping " + path + " failed: " + e.getMessage());
+							failed.incrementAndGet();
+						}
+						catch (final RuntimeException e) {
+							IJ.log("Stripping " + path + " failed: " + e);
+							failed.incrementAndGet();
+						}
+					});
+					return FileVisitResult.CONTINUE;
+				}
+			});
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return new int[] { stripped.get(), skipped[0], failed.get() };
+	}
+
+	private static void addStripCheckboxes(final GenericDialog dialog) {
 		// MeasInfo,PatBirth,PatMenoAge,PatName,PatTitle&Comment
-		final int[] fromIndices = { 662, 1091, 1095, 1099, 1141 };
-		final int[] stripLengths = { 324, 4, 4, 41, 124 };
-		for (int s = 0; s < fromIndices.length; ++s) {
-			if (toStrip[s]) {
-				final int toIndex = fromIndices[s] + stripLengths[s];
-				Arrays.fill(data, fromIndices[s], toIndex, (byte) 0);
+		dialog.addCheckbox("Strip_MeasInfo", false);
+		dialog.addCheckbox("Strip_PatBirth", false);
+		dialog.addCheckbox("Strip_PatMenoAge", false);
+		dialog.addCheckbox("Strip_PatName", true);
+		dialog.addCheckbox("Strip_PatTitleAndComment", false);
+	}
+
+	private static boolean[] getStripCheckboxes(final GenericDialog dialog) {
+		final boolean[] toStrip = new boolean[5];
+		for (int i = 0; i < toStrip.length; ++i) {
+			toStrip[i] = dialog.getNextBoolean();
+		}
+		return toStrip;
+	}
+
+	private static Set<String> readManifest(final Path manifest)
+		throws IOException
+	{
+		if (!Files.exists(manifest)) {
+			return Collections.emptySet();
+		}
+		final Set<String> done = new HashSet<>();
+		try (final BufferedReader reader = Files.newBufferedReader(manifest,
+			StandardCharsets.UTF_8))
+		{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (!line.isEmpty()) {
+					done.add(line);
+				}
 			}
 		}
+		return done;
 	}
 
-	private static void writeFile(final String fileName, final byte[] fileData) {
-		try (FileOutputStream writer = new FileOutputStream(fileName)) {
-			writer.write(fileData);
+	private static void runBatch() {
+		final GenericDialog dialog = new GenericDialog(
+			"Strip Stratec Headers (Batch)");
+		addStripCheckboxes(dialog);
+		dialog.addStringField("Directory_to_strip", Prefs.getDefaultDirectory(),
+			60);
+		dialog.addStringField("Output_directory", "", 60);
+		dialog.addCheckbox("Patch_in_place", false);
+		dialog.addNumericField("Threads", Runtime.getRuntime()
+			.availableProcessors(), 0);
+		dialog.addMessage("Only image files (I*.M*) are stripped");
+		dialog.showDialog();
+		if (!dialog.wasOKed()) {
+			return;
+		}
+		final boolean[] toStrip = getStripCheckboxes(dialog);
+		final File inRoot = new File(dialog.getNextString());
+		final String outName = dialog.getNextString();
+		final boolean inPlace = dialog.getNextBoolean();
+		final int threads = Math.max(1, (int) dialog.getNextNumber());
+		if (!inRoot.isDirectory()) {
+			IJ.error("Input directory didn't exist");
+			return;
+		}
+		if (!inPlace && outName.isEmpty()) {
+			IJ.error("Give an output directory or patch the files in place");
+			return;
+		}
+		try {
+			final int[] counts = stripDirectory(inRoot, inPlace ? null : new File(
+				outName), toStrip, threads);
+			IJ.log("Stripped " + counts[0] + " files, skipped " + counts[1] +
+				" already stripped, " + counts[2] + " failed");
 		}
 		catch (final Exception err) {
-			IJ.error("Saving failed");
+			IJ.error("Stratec file header stripping failed", err.getMessage());
+		}
+	}
+
+	// Writing dummy header containing sufficient details for the
+	// PqctAnalysis imageJ plugin, might not suffice for Geanie or
+	// Stratec software
+	private static ByteBuffer strippedHeader(final FileChannel channel,
+		final boolean[] toStrip) throws IOException
+	{
+		if (channel.size() < StratecHeader.HEADER_LENGTH) {
+			throw new IOException("File length < " + StratecHeader.HEADER_LENGTH +
+				" bytes.");
+		}
+		final ByteBuffer header = ByteBuffer.allocate(StratecHeader.HEADER_LENGTH);
+		while (header.hasRemaining()) {
+			if (channel.read(header, header.position()) < 0) {
+				throw new IOException("File length < " +
+					StratecHeader.HEADER_LENGTH + " bytes.");
+			}
+		}
+		for (int s = 0; s < FROM_INDICES.length; ++s) {
+			if (toStrip[s]) {
+				Arrays.fill(header.array(), FROM_INDICES[s], FROM_INDICES[s] +
+					STRIP_LENGTHS[s], (byte) 0);
+			}
 		}
+		header.flip();
+		return header;
 	}
 }
@@ -32,8 +32,10 @@ import static java.util.Arrays.stream;
 
 import java.util.List;
 import java.util.Vector;
+import java.util.function.IntPredicate;
 
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.selectroi.BoundingBox;
 import sc.fiji.pQCT.selectroi.SelectROI;
 
 public class ConcentricRingAnalysis {
@@ -50,8 +52,9 @@ public class ConcentricRingAnalysis {
 	private final double sectorWidth;
 	private final double divisions;
 	// Variables for moment calculations
-	private final Vector<Integer> pind;
+	private final int[] pind;
 	private final SelectROI roi;
+	private final boolean legacyRayMarching;
 	private final List<double[]> bMDJ = new Vector<>();
 
 	public ConcentricRingAnalysis(final SelectROI roi,
@@ -59,6 +62,7 @@ public class ConcentricRingAnalysis {
 	{
 		pind = determineAlpha.pind;
 		this.roi = roi;
+		legacyRayMarching = details.legacyRayMarching;
 		sectorWidth = details.concentricSector;
 		divisions = details.concentricDivisions;
 		height = roi.height;
@@ -66,9 +70,10 @@ public class ConcentricRingAnalysis {
 		pixelSpacing = roi.pixelSpacing;
 		boneCenter = new double[2];
 		int points = 0;
-		for (int j = 0; j < height; j++) {
+		final BoundingBox box = roi.sieveBox;
+		for (int j = box.minY; j <= box.maxY; j++) {
 			final int offset = j * width;
-			for (int i = 0; i < width; i++) {
+			for (int i = box.minX; i <= box.maxX; i++) {
 				if (roi.sieve[offset + i] > 0) {
 					boneCenter[0] += i;
 					boneCenter[1] += j;
@@ -91,59 +96,53 @@ public class ConcentricRingAnalysis {
 		for (int i = 0; i < divisions; ++i) {
 			bMDJ.add(new double[360]);
 		}
-		final double rIncrement = 0.1;
+		final RayMarcher marcher = new RayMarcher(width, boneCenter[0],
+			boneCenter[1], legacyRayMarching);
+		final IntPredicate bone = i -> roi.sieve[i] > 0;
 		// Finding endocortical and pericortical
 		// borders uMath.sing polar coordinates
-		for (int et = 0; et < 360; ++et) {
-			final Vector<Double> BMD_temp = new Vector<>();
-			theta[et] = Math.PI / 180.0 * et;
-			final double cosTheta = Math.cos(theta[et]);
-			final double sinTheta = Math.sin(theta[et]);
-			final double cX = boneCenter[0];
-			final double cY = boneCenter[1];
-			double r = 0;
-			while (roi.sieve[(int) (cX + r * cosTheta) + ((int) ((cY + r *
-				sinTheta)) * width)] > 0 || roi.sieve[(int) (cX + (r + 0.5) *
-					cosTheta) + ((int) ((cY + (r + 0.5) * sinTheta)) * width)] > 0 ||
-				roi.sieve[(int) (cX + (r + 1) * cosTheta) + ((int) ((cY + (r + 1) *
-					sinTheta)) * width)] > 0 || roi.sieve[(int) (cX + (r + 2) *
-						cosTheta) + ((int) ((cY + (r + 2) * sinTheta)) * width)] > 0 ||
-				roi.sieve[(int) (cX + (r + 3) * cosTheta) + ((int) ((cY + (r + 3) *
-					sinTheta)) * width)] > 0 || roi.sieve[(int) (cX + (r + 4) *
-						cosTheta) + ((int) ((cY + (r + 4) * sinTheta)) * width)] > 0 ||
-				roi.sieve[(int) (cX + (r + 6) * cosTheta) + ((int) ((cY + (r + 6) *
-					sinTheta)) * width)] > 0)
+		final int stop = RayMarcher.forEachAngle(et -> calculateRadius(marcher,
+			bone, et));
+		RayMarcher.discardAfter(stop, theta, rU);
+		for (final double[] division : bMDJ) {
+			RayMarcher.discardAfter(stop, division);
+		}
+	}
+
+	// Returns false if the cortex along the ray is too thin to divide
+	private boolean calculateRadius(final RayMarcher marcher,
+		final IntPredicate bone, final int et)
+	{
+		final Vector<Double> BMD_temp = new Vector<>();
+		theta[et] = RayMarcher.theta(et);
+		final double end = marcher.reach(et, 0, bone);
+		// Calculate BMC rho*dV, dV=dA*slice_thickness
+		// dA=pi*((r(et)*resolution)^2-((r(et)-0.1)*resolution)^2),
+		// slice_thickness = 1 mm
+		// (could be set to actual slice thickness, but makes no
+		// difference for comparisons -> 1 mm is used bMD divided by
+		// 1000, because unit is mg/cm3 and area is mm2
+		rU[et] = marcher.sample(et, 0, end, null, roi.scaledImage, (r,
+			value) -> BMD_temp.add(value));
+		final int analysisThickness = BMD_temp.size();
+		// Dividing the cortex to three divisions -> save the mean vBMD for each
+		// division
+		if (analysisThickness < divisions) {
+			return false;
+		}
+		// cortex
+		for (int div = 0; div < divisions; ++div) {
+			double mo = 0;
+			for (int ka = (int) (analysisThickness * div /
+				divisions); ka < (int) (analysisThickness * (div + 1.0) /
+					divisions); ka++)
 			{
-				// Calculate BMC rho*dV, dV=dA*slice_thickness
-				// dA=pi*((r(et)*resolution)^2-((r(et)-0.1)*resolution)^2),
-				// slice_thickness = 1 mm
-				// (could be set to actual slice thickness, but makes no
-				// difference for comparisons -> 1 mm is used bMD divided by
-				// 1000, because unit is mg/cm3 and area is mm2
-				BMD_temp.add(roi.scaledImage[(int) (cX + r * cosTheta) + ((int) ((cY +
-					r * sinTheta)) * width)]);
-				r += rIncrement;
-			}
-			rU[et] = r;
-			final int analysisThickness = BMD_temp.size();
-			// Dividing the cortex to three divisions -> save the mean vBMD for each
-			// division
-			if (analysisThickness < divisions) {
-				return;
-			}
-			// cortex
-			for (int div = 0; div < divisions; ++div) {
-				double mo = 0;
-				for (int ka = (int) (analysisThickness * div /
-					divisions); ka < (int) (analysisThickness * (div + 1.0) /
-						divisions); ka++)
-				{
-					bMDJ.get(div)[et] += BMD_temp.get(ka);
-					mo++;
-				}
-				bMDJ.get(div)[et] /= mo;
+				bMDJ.get(div)[et] += BMD_temp.get(ka);
+				mo++;
 			}
+			bMDJ.get(div)[et] /= mo;
 		}
+		return true;
 	}
 
 	private void rotateResults() {
@@ -158,7 +157,7 @@ public class ConcentricRingAnalysis {
 		// Calculate the division and sector values of vBMD
 		for (int pp = 0; pp < size; pp++) {
 			for (int dd = 0; dd < (int) sectorWidth; dd++) {
-				final int index = pind.get((int) (pp * sectorWidth + dd));
+				final int index = pind[(int) (pp * sectorWidth + dd)];
 				pericorticalRadii[pp] += pRad[index] / sectorWidth;
 				for (int div = 0; div < divisions; ++div) {
 					BMDs.get(div)[pp] += bMDJ.get(div)[index] / sectorWidth;
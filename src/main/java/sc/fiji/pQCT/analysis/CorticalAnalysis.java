@@ -31,6 +31,7 @@ package sc.fiji.pQCT.analysis;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.IntStream;
 
+import sc.fiji.pQCT.selectroi.BoundingBox;
 import sc.fiji.pQCT.selectroi.SelectROI;
 
 public class CorticalAnalysis {
@@ -57,6 +58,7 @@ public class CorticalAnalysis {
 	public double sSI;
 	// Stratec/Geanie compatible CoD and CoA
 	public byte[] cortexSieve;
+	public BoundingBox cortexSieveBox;
 	public double CoD;
 	public double CoA;
 
@@ -65,18 +67,21 @@ public class CorticalAnalysis {
 		ToD = 0;
 		marrowArea = 0;
 		marrowDensity = 0;
-		final int iterations = roi.width * roi.height;
-		for (int i = 0; i < iterations; i++) {
-			if (roi.sieve[i] <= 0) {
-				continue;
-			}
-			final double value = roi.scaledImage[i];
-			ToA++;
-			ToD += value;
-			// Marrow analysis
-			if (value < roi.details.marrowThreshold) {
-				marrowArea++;
-				marrowDensity += value;
+		final BoundingBox box = roi.sieveBox;
+		for (int y = box.minY; y <= box.maxY; y++) {
+			for (int x = box.minX; x <= box.maxX; x++) {
+				final int i = x + y * roi.width;
+				if (roi.sieve[i] <= 0) {
+					continue;
+				}
+				final double value = roi.scaledImage.get(i);
+				ToA++;
+				ToD += value;
+				// Marrow analysis
+				if (value < roi.details.marrowThreshold) {
+					marrowArea++;
+					marrowDensity += value;
+				}
 			}
 		}
 		ToD /= ToA;
@@ -111,15 +116,13 @@ public class CorticalAnalysis {
 		bMD = 0;
 		area = 0;
 		for (int j = 0; j < roi.cortexRoiI.size(); j++) {
-			bMD += roi.cortexROI[roi.cortexRoiI.get(j) + roi.cortexRoiJ.get(j) *
-				roi.width];
+			bMD += roi.cortexROI.get(roi.cortexRoiI.get(j) + roi.cortexRoiJ.get(j) *
+				roi.width);
 		}
 		bMD /= roi.cortexRoiI.size();
 		final double[] cortexCenter = new double[2];
-		cortexCenter[0] = roi.cortexAreaRoiI.stream().mapToInt(i -> i).average()
-			.orElse(-1.0);
-		cortexCenter[1] = roi.cortexAreaRoiJ.stream().mapToInt(j -> j).average()
-			.orElse(-1.0);
+		cortexCenter[0] = roi.cortexAreaRoiI.stream().average().orElse(-1.0);
+		cortexCenter[1] = roi.cortexAreaRoiJ.stream().average().orElse(-1.0);
 		// Calculate cortical area from 550 threshold...
 		final int cortexROIs = roi.cortexAreaRoiI.size();
 		area = cortexROIs * roi.pixelSpacing * roi.pixelSpacing;
@@ -154,7 +157,7 @@ public class CorticalAnalysis {
 			final int roiY = roi.cortexAreaRoiJ.get(i);
 			final double x = roiX - cortexX;
 			final double y = roiY - cortexY;
-			final double scale = roi.scaledImage[roiX + roiY * roi.width];
+			final double scale = roi.scaledImage.get(roiX + roiY * roi.width);
 			final double pX = x * roi.pixelSpacing;
 			final double pY = y * roi.pixelSpacing;
 			xmax = xmax + pX * pX * spacingSq;
@@ -208,15 +211,21 @@ public class CorticalAnalysis {
 		CoD = 0;
 		CoA = 0;
 		int CoDcounter = 0;
-		cortexSieve = new byte[roi.scaledImage.length];
-		for (int j = 0; j < roi.scaledImage.length; ++j) {
-			if (tempRoi.sieve[j] > 0 && roi.scaledImage[j] >= roi.BMDthreshold) {
-				CoD += roi.scaledImage[j];
-				++CoDcounter;
-				cortexSieve[j] = 1;
-			}
-			if (tempRoi.sieve[j] > 0 && roi.scaledImage[j] >= roi.areaThreshold) {
-				CoA += 1.0;
+		cortexSieve = new byte[roi.scaledImage.size()];
+		cortexSieveBox = tempRoi.sieveBox;
+		for (int y = cortexSieveBox.minY; y <= cortexSieveBox.maxY; y++) {
+			for (int x = cortexSieveBox.minX; x <= cortexSieveBox.maxX; x++) {
+				final int j = x + y * roi.width;
+				if (tempRoi.sieve[j] > 0 && roi.scaledImage.get(j) >= roi.BMDthreshold)
+				{
+					CoD += roi.scaledImage.get(j);
+					++CoDcounter;
+					cortexSieve[j] = 1;
+				}
+				if (tempRoi.sieve[j] > 0 && roi.scaledImage.get(j) >= roi.areaThreshold)
+				{
+					CoA += 1.0;
+				}
 			}
 		}
 		CoD /= CoDcounter;
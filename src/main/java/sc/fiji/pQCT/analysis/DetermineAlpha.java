@@ -31,24 +31,25 @@ package sc.fiji.pQCT.analysis;
 import static java.util.stream.IntStream.range;
 
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.IntStream;
 
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
+import sc.fiji.pQCT.selectroi.BoundingBox;
 import sc.fiji.pQCT.selectroi.DetectedEdge;
 import sc.fiji.pQCT.selectroi.RoiSelector;
 import sc.fiji.pQCT.selectroi.SelectROI;
+import sc.fiji.pQCT.utils.IntList;
 
 public class DetermineAlpha {
 
 	private final ImageAndAnalysisDetails details;
-	public Vector<Integer> pindColor;
+	public int[] pindColor;
 	public double alpha;
 	public double rotationCorrection;
 	public double distanceBetweenBones;
-	Vector<Integer> pind;
+	int[] pind;
 
 	public DetermineAlpha(final SelectROI roi,
 		final ImageAndAnalysisDetails details)
@@ -62,16 +63,17 @@ public class DetermineAlpha {
 		final String choice = details.rotationChoice;
 		final String[] labels = details.rotationLabels;
 		if (choice.equals(labels[0])) {
-			final double[] csmiValues = csmi(roi.sieve, roi.width, roi.height);
+			final double[] csmiValues = csmi(roi.sieve, roi.width, roi.sieveBox);
 			determineMomentAlpha(csmiValues);
 		}
 		if (choice.equals(labels[2])) {
 			final int voxels = roi.width * roi.height;
 			final byte[] tempCsmiSieve = new byte[voxels];
-			final double[] image = roi.scaledImage;
-			range(0, voxels).filter(i -> image[i] >= details.rotationThreshold)
+			final PixelBuffer image = roi.scaledImage;
+			range(0, voxels).filter(i -> image.get(i) >= details.rotationThreshold)
 				.forEach(i -> tempCsmiSieve[i] = 1);
-			final double[] csmiValues = csmi(tempCsmiSieve, roi.width, roi.height);
+			final double[] csmiValues = csmi(tempCsmiSieve, roi.width, BoundingBox
+				.of(roi.width, roi.height));
 			determineMomentAlpha(csmiValues);
 		}
 		// Rotation according to the furthest point
@@ -81,20 +83,20 @@ public class DetermineAlpha {
 			final IntStream iValues;
 			final IntStream jValues;
 			if (roi.boneMarrowRoiI.isEmpty()) {
-				iValues = roi.cortexAreaRoiI.stream().mapToInt(i -> i);
-				jValues = roi.cortexAreaRoiJ.stream().mapToInt(j -> j);
+				iValues = roi.cortexAreaRoiI.stream();
+				jValues = roi.cortexAreaRoiJ.stream();
 			}
 			else {
-				iValues = roi.boneMarrowRoiI.stream().mapToInt(i -> i);
-				jValues = roi.boneMarrowRoiJ.stream().mapToInt(j -> j);
+				iValues = roi.boneMarrowRoiI.stream();
+				jValues = roi.boneMarrowRoiJ.stream();
 			}
 			marrowCenter[0] = iValues.average().orElse(0.0);
 			marrowCenter[1] = jValues.average().orElse(0.0);
 			final DetectedEdge edge = roi.edges.get(roi.selection);
 			final double[] radii = new double[edge.length];
 			for (int i = 0; i < edge.length; ++i) {
-				final double x = edge.iit.get(i) - marrowCenter[0];
-				final double y = edge.jiit.get(i) - marrowCenter[1];
+				final double x = edge.iit().get(i) - marrowCenter[0];
+				final double y = edge.jiit().get(i) - marrowCenter[1];
 				radii[i] = Math.sqrt(x * x + y * y);
 			}
 			final double[] sumRadii = new double[radii.length];
@@ -108,8 +110,8 @@ public class DetermineAlpha {
 			while (Double.compare(sumRadii[index], greatestR) != 0) {
 				++index;
 			}
-			final double x = edge.iit.get(index) - marrowCenter[0];
-			final double y = edge.jiit.get(index) - marrowCenter[1];
+			final double x = edge.iit().get(index) - marrowCenter[0];
+			final double y = edge.jiit().get(index) - marrowCenter[1];
 			alpha = Math.PI - Math.atan2(y, x);
 		}
 
@@ -136,15 +138,17 @@ public class DetermineAlpha {
 				otherBoneSelection = twoBones[0];
 			}
 			// Fill a sieve with a second bone and acquire coordinates...
-			final Vector<Integer> sRoiI = tempRoi.edges.get(otherBoneSelection).iit;
-			final Vector<Integer> sRoiJ = tempRoi.edges.get(otherBoneSelection).jiit;
+			final DetectedEdge otherBone = tempRoi.edges.get(otherBoneSelection);
+			final IntList sRoiI = otherBone.iit();
+			final IntList sRoiJ = otherBone.jiit();
 			final byte[] secondBoneSieve = tempRoi.fillSieve(sRoiI, sRoiJ,
 				tempRoi.width, tempRoi.height, tempRoi.scaledImage,
 				details.rotationThreshold);
 			final double[] selectedBoneCenter = calculateCenter(tempRoi.sieve,
-				tempRoi.width, tempRoi.height); /*Calculate selected bone centre*/
+				tempRoi.width, tempRoi.sieveBox); /*Calculate selected bone centre*/
 			final double[] otherBoneCenter = calculateCenter(secondBoneSieve,
-				tempRoi.width, tempRoi.height); /*Calculate other bone centre*/
+				tempRoi.width, BoundingBox.ofFill(otherBone, tempRoi.width,
+					tempRoi.height)); /*Calculate other bone centre*/
 			final double x;
 			final double y;
 			if (choice.equals(labels[3])) {
@@ -191,11 +195,11 @@ public class DetermineAlpha {
 	}
 
 	private static double[] calculateCenter(final byte[] sieve, final int width,
-		final int height)
+		final BoundingBox box)
 	{
 		final double[] originBone = new double[3];
-		for (int j = 0; j < height; ++j) {
-			for (int i = 0; i < width; ++i) {
+		for (int j = box.minY; j <= box.maxY; ++j) {
+			for (int i = box.minX; i <= box.maxX; ++i) {
 				if (sieve[i + j * width] > 0) {
 					originBone[0] += i;
 					originBone[1] += j;
@@ -209,14 +213,14 @@ public class DetermineAlpha {
 	}
 
 	private static double[] csmi(final byte[] sieve, final int width,
-		final int height)
+		final BoundingBox box)
 	{
 		final double[] cortexCenter = new double[2];
 		double points = 0;
-		final Vector<Integer> bmcI = new Vector<>();
-		final Vector<Integer> bmcJ = new Vector<>();
-		for (int j = 0; j < height; j++) {
-			for (int i = 0; i < width; i++) {
+		final IntList bmcI = new IntList();
+		final IntList bmcJ = new IntList();
+		for (int j = box.minY; j <= box.maxY; j++) {
+			for (int i = box.minX; i <= box.maxX; i++) {
 				if (sieve[i + j * width] > 0) {
 					cortexCenter[0] += i;
 					cortexCenter[1] += j;
@@ -277,9 +281,9 @@ public class DetermineAlpha {
 		}
 	}
 
-	private Vector<Integer> rotateIndex(final int rotationAngle) {
+	private int[] rotateIndex(final int rotationAngle) {
 		final int initialIndex;
-		final Vector<Integer> rotateIndexVector = new Vector<>();
+		final IntList rotateIndexVector = new IntList(360);
 		if (rotationAngle >= 0) {
 			initialIndex = 360 - rotationAngle;
 		}
@@ -300,9 +304,9 @@ public class DetermineAlpha {
 
 		/*Flip rotateIndexVector, for e.g. comparing left to right*/
 		if (details.flipDistribution) {
-			Collections.reverse(rotateIndexVector);
+			rotateIndexVector.reverse();
 		}
-		return rotateIndexVector;
+		return rotateIndexVector.toArray();
 	}
 
 }
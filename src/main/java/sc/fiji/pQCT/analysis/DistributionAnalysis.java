@@ -33,9 +33,15 @@ import static java.util.stream.IntStream.range;
 
 import java.util.List;
 import java.util.Vector;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
+import sc.fiji.pQCT.selectroi.BoundingBox;
 import sc.fiji.pQCT.selectroi.SelectROI;
+import sc.fiji.pQCT.utils.BitMask;
+import sc.fiji.pQCT.utils.IntList;
 
 public class DistributionAnalysis {
 
@@ -54,21 +60,23 @@ public class DistributionAnalysis {
 	public final double[] polarDistribution;
 	public final double peeledBMD;
 	private final double pixelSpacing;
-	private final double[] originalROI;
+	private final PixelBuffer originalROI;
 	private final double sectorWidth;
 	private final double divisions;
 	private final double threshold;
 	private final double[] rS = new double[360];
 	private final double[] rU = new double[360];
 	private final List<double[]> bMDJ = new Vector<>();
-	private final Vector<Integer> pInd;
-	private double[] peeledROI;
+	private final int[] pInd;
+	private final boolean legacyRayMarching;
+	private PixelBuffer peeledROI;
 	private double maxRadius;
 
 	public DistributionAnalysis(final SelectROI roi,
 		final ImageAndAnalysisDetails details, final DetermineAlpha determineAlpha)
 	{
 		pInd = determineAlpha.pind;
+		legacyRayMarching = details.legacyRayMarching;
 		sectorWidth = details.sectorWidth;
 		final int size = (int) (360.0 / sectorWidth);
 		endocorticalRadii = new double[size];
@@ -82,17 +90,19 @@ public class DistributionAnalysis {
 		final boolean preventPeeling = details.preventPeeling;
 		threshold = details.bMDThreshold;
 		final double minimum = roi.minimum;
-		final Vector<Integer> marrowI = roi.boneMarrowRoiI;
-		final Vector<Integer> marrowJ = roi.boneMarrowRoiJ;
+		final IntList marrowI = roi.boneMarrowRoiI;
+		final IntList marrowJ = roi.boneMarrowRoiJ;
 		height = roi.height;
 		width = roi.width;
 		pixelSpacing = roi.pixelSpacing;
-		originalROI = roi.cortexROI.clone();
-		peeledROI = roi.cortexROI.clone();
+		originalROI = roi.cortexROI;
+		peeledROI = roi.cortexROI.view();
 
-		// Test peeledROI min and max values
-		final int peeledSize = width * height;
-		peeledROI = erode(peeledROI, width, height, minimum);
+		// The ROIs are at minimum outside the bone, so unless that passes the
+		// threshold only the pixels within its box matter
+		final BoundingBox box = minimum < threshold ? roi.sieveBox : BoundingBox
+			.of(width, height);
+		peeledROI = erode(peeledROI, width, height, box, minimum);
 
 		for (int i = 0; i < marrowI.size(); i++) {
 			marrowCenter[0] += (double) marrowI.get(i);
@@ -101,16 +111,16 @@ public class DistributionAnalysis {
 		marrowCenter[0] /= marrowI.size();
 		marrowCenter[1] /= marrowJ.size();
 
-		peeledBMD = range(0, peeledSize).filter(i -> peeledROI[i] >= threshold)
-			.mapToDouble(ii -> peeledROI[ii]).average().orElse(0.0);
+		peeledBMD = boxIndices(box).filter(i -> peeledROI.get(i) >= threshold)
+			.mapToDouble(ii -> peeledROI.get(ii)).average().orElse(0.0);
 
 		// Try old implementation here
-		final Vector<Integer> cortexI = new Vector<>();
-		final Vector<Integer> cortexJ = new Vector<>();
+		final IntList cortexI = new IntList();
+		final IntList cortexJ = new IntList();
 		double maxRadiusY = 0;
-		for (int j = 0; j < height; j++) {
-			for (int i = 0; i < width; i++) {
-				if (peeledROI[i + j * width] >= threshold) {
+		for (int j = box.minY; j <= box.maxY; j++) {
+			for (int i = box.minX; i <= box.maxX; i++) {
+				if (peeledROI.get(i + j * width) >= threshold) {
 					if (Math.sqrt((i - marrowCenter[0]) * (i - marrowCenter[0]) + (j -
 						marrowCenter[1]) * (j - marrowCenter[1])) > maxRadiusY)
 					{
@@ -118,7 +128,7 @@ public class DistributionAnalysis {
 							marrowCenter[0]) + (j - marrowCenter[1]) * (j - marrowCenter[1]));
 					}
 				}
-				if (originalROI[i + j * width] >= threshold) {
+				if (originalROI.get(i + j * width) >= threshold) {
 					cortexI.add(i);
 					cortexJ.add(j);
 				}
@@ -147,7 +157,7 @@ public class DistributionAnalysis {
 			}
 		}
 
-		maxRadius = range(0, peeledSize).filter(i -> originalROI[i] >= threshold)
+		maxRadius = boxIndices(box).filter(i -> originalROI.get(i) >= threshold)
 			.mapToDouble(index -> {
 				int i = index % width;
 				int j = (index - i) / width;
@@ -173,159 +183,137 @@ public class DistributionAnalysis {
 		}
 		// Finding endocortical and pericortical borders uMath.sing polar
 		// coordinates
-		final double x = marrowCenter[0];
-		final double y = marrowCenter[1];
-
+		final RayMarcher marcher = new RayMarcher(width, marrowCenter[0],
+			marrowCenter[1], legacyRayMarching);
+		final IntPredicate cortex = i -> originalROI.get(i) >= threshold;
+
+		// The endosteal border of each ray is searched for from half that of the
+		// previous ray, so these borders are found in order first
+		RuntimeException error = null;
+		int seeded = RayMarcher.ANGLES;
 		for (int et = 0; et < 360; ++et) {
-			final Vector<Double> BMD_temp = new Vector<>();
-			theta[et] = Math.PI / 180.0 * et;
+			theta[et] = RayMarcher.theta(et);
 
 			if (et > 0) {
 				r[et] = Math.round((rS[et - 1] / 2.0) * 10.0) / 10.0;
 			}
 
 			// Anatomical endosteal border
-			final double sinTheta = Math.sin(theta[et]);
-			final double cosTheta = Math.cos(theta[et]);
-
-			r[et] = expandRadius(originalROI, threshold, r[et], x, y, cosTheta,
-				sinTheta);
-			rS[et] = r[et];
-			if (preventPeeling) {
-				r2[et] = r[et];
-			}
-			else {
-				r[et] = expandRadius(peeledROI, 1.0, r[et], x, y, cosTheta, sinTheta);
-				r2[et] = r[et];
-				r[et] = r[et] + 0.1;
-			}
-
-			// Return from rMax to identify periosteal border
-			double rTemp = maxRadius;
-			final double[] roiToObserve = preventPeeling ? originalROI : peeledROI;
-
-			while (rTemp > r2[et]) {
-				final int index = (int) (x + rTemp * cosTheta) + (((int) (y + rTemp *
-					sinTheta)) * width);
-				if (roiToObserve[index] > 0) {
-					// The loop went until no longer on bone
-					rTemp += 0.1;
-					break;
-				}
-				rTemp -= 0.1;
+			try {
+				r[et] = marcher.expand(et, r[et], cortex, maxRadius);
 			}
-
-			// Identify anatomical periosteal border
-			if (preventPeeling) {
-				rU[et] = rTemp;
+			catch (final RuntimeException e) {
+				error = e;
+				seeded = et;
+				break;
 			}
-			else {
-				rU[et] = expandRadiusMulti(originalROI, threshold, rTemp, x, y,
-					cosTheta, sinTheta);
+			rS[et] = r[et];
+		}
+		final RuntimeException seedError = error;
+		final int seededAngles = seeded;
+		final int stop = RayMarcher.forEachAngle(et -> {
+			if (et >= seededAngles) {
+				throw seedError;
 			}
+			return calculateRadius(marcher, et, preventPeeling);
+		});
+		RayMarcher.discardAfter(stop, theta, r, r2, rS, rU);
+		for (final double[] division : bMDJ) {
+			RayMarcher.discardAfter(stop, division);
+		}
+	}
 
-			// Get BMD through the cortex by repeating the incrementing
-			while (r[et] < rTemp) {
-				r[et] = r[et] + 0.1;
-				final int index = (int) (x + r[et] * cosTheta) + (((int) (y + r[et] *
-					sinTheta)) * width);
-				if (roiToObserve[index] > 0) {
-					BMD_temp.add(originalROI[index]);
-				}
-			}
+	// Returns false if the cortex along the ray is too thin to divide
+	private boolean calculateRadius(final RayMarcher marcher, final int et,
+		final boolean preventPeeling)
+	{
+		final Vector<Double> BMD_temp = new Vector<>();
+		if (preventPeeling) {
+			r2[et] = r[et];
+		}
+		else {
+			r[et] = marcher.expand(et, r[et], i -> peeledROI.get(i) >= 1.0,
+				maxRadius);
+			r2[et] = r[et];
+			r[et] = r[et] + RayMarcher.STEP;
+		}
 
-			// Get the BMDs here
+		// Return from rMax to identify periosteal border
+		final PixelBuffer roiToObserve = preventPeeling ? originalROI : peeledROI;
+		final IntPredicate observed = i -> roiToObserve.get(i) > 0;
+		final double rTemp = marcher.retreat(et, maxRadius, r2[et], observed);
 
-			// Dividing the cortex to three divisions -> save the mean vBMD for each
-			// division
-			final double analysisThickness = BMD_temp.size();
-			if (analysisThickness < divisions) {
-				break;
-			}
-			for (int div = 0; div < divisions; ++div) {
-				int mo = 0;
-				for (int ka = (int) (analysisThickness * div /
-					divisions); ka < (int) (analysisThickness * (div + 1.0) /
-						divisions); ka++)
-				{
-					bMDJ.get(div)[et] += BMD_temp.get(ka);
-					mo++;
-				}
-				bMDJ.get(div)[et] /= mo;
+		// Identify anatomical periosteal border
+		if (preventPeeling) {
+			rU[et] = rTemp;
+		}
+		else {
+			rU[et] = marcher.reach(et, rTemp, i -> originalROI.get(i) > threshold,
+				maxRadius / pixelSpacing, true);
+		}
 
+		// Get BMD through the cortex by repeating the incrementing. The sample
+		// at which the radius reaches rTemp is included.
+		if (r[et] < rTemp) {
+			r[et] = marcher.sample(et, r[et] + RayMarcher.STEP, rTemp, observed,
+				originalROI, (radius, value) -> BMD_temp.add(value));
+			if (marcher.test(et, r[et], observed)) {
+				BMD_temp.add(marcher.get(et, r[et], originalROI));
 			}
 		}
-	}
 
-	// TODO Refactor into a static utility method for all classes instead of
-	// repeating code
-	private static double[] erode(final double[] data, final int width,
-		final int height, final double bgVal)
-	{
-		// Erode algorithm
-		// Modified from the best dilate by one solution taken from
-		// http://ostermiller.org/dilate_and_erode.html
-		for (int i = 1; i < height - 1; i++) {
-			for (int j = 1; j < width - 1; j++) {
-				final int index = i * width + j;
-				if (data[index] > bgVal) {
-					if (data[(i - 1) * width + j] == bgVal || data[(i) * width + j -
-						1] == bgVal || data[(i + 1) * width + j] == bgVal || data[(i) *
-							width + j + 1] == bgVal)
-					{
-						// Erode the pixel if any of the neighborhood pixels is background
-						data[index] = bgVal - 1;
-					}
-				}
-			}
+		// Get the BMDs here
+
+		// Dividing the cortex to three divisions -> save the mean vBMD for each
+		// division
+		final double analysisThickness = BMD_temp.size();
+		if (analysisThickness < divisions) {
+			return false;
 		}
-		for (int i = 0; i < width * height; i++) {
-			if (data[i] < bgVal) {
-				data[i] = bgVal;
+		for (int div = 0; div < divisions; ++div) {
+			int mo = 0;
+			for (int ka = (int) (analysisThickness * div /
+				divisions); ka < (int) (analysisThickness * (div + 1.0) /
+					divisions); ka++)
+			{
+				bMDJ.get(div)[et] += BMD_temp.get(ka);
+				mo++;
 			}
+			bMDJ.get(div)[et] /= mo;
+
 		}
-		return data;
+		return true;
 	}
 
-	// TODO Replace while(roi[x + r * cos(theta) ...]) loops with similar methods
-	private double expandRadius(final double[] roi, final double threshold,
-		final double radius, final double x, final double y, final double cos,
-		final double sin)
-	{
-		double expandedR = radius;
-		final double maxR = maxRadius;
-		while (true) {
-			final int index = (int) (x + expandedR * cos) + (((int) (y + expandedR *
-				sin)) * width);
-			if (roi[index] >= threshold || expandedR >= maxR) {
-				break;
-			}
-			expandedR += 0.1;
-		}
-		return expandedR;
+	// The pixel indices within the box in raster order
+	private IntStream boxIndices(final BoundingBox box) {
+		return range(box.minY, box.maxY + 1).flatMap(j -> range(j * width +
+			box.minX, j * width + box.maxX + 1));
 	}
 
-	// TODO Replace while(roi[x + r * cos(theta) ...] || roi[x + r + 2 *
-	// cos(theta) ...]) loops with similar methods
-	private double expandRadiusMulti(final double[] roi, final double threshold,
-		final double radius, final double x, final double y, final double cos,
-		final double sin)
+	private static PixelBuffer erode(final PixelBuffer data, final int width,
+		final int height, final BoundingBox box, final double bgVal)
 	{
-		double expandedR = radius;
-		final double maxR = maxRadius / pixelSpacing;
-		while (true) {
-			final double radii[] = { expandedR, expandedR + 0.5, expandedR + 1.0,
-				expandedR + 2.0, expandedR + 3.0, expandedR + 4.0, expandedR + 6.0 };
-			final int[] indices = stream(radii).mapToInt(r -> (int) ((x + r * cos) +
-				((int) (y + r * sin)) * width)).toArray();
-			if (stream(indices).noneMatch(i -> roi[i] > threshold) ||
-				expandedR >= maxR)
-			{
-				break;
+		// Erode the pixels next to the background, except on the image border.
+		// Everything outside the box is background.
+		final BitMask foreground = new BitMask(width, height);
+		for (int j = box.minY; j <= box.maxY; j++) {
+			for (int i = box.minX; i <= box.maxX; i++) {
+				if (data.get(i + j * width) != bgVal) {
+					foreground.set(i + j * width);
+				}
 			}
-			expandedR += 0.1;
 		}
-		return expandedR;
+		foreground.erode();
+		for (int j = box.minY; j <= box.maxY; j++) {
+			for (int i = box.minX; i <= box.maxX; i++) {
+				final int index = i + j * width;
+				if (!foreground.get(index) || data.get(index) < bgVal) {
+					data.set(index, bgVal);
+				}
+			}
+		}
+		return data;
 	}
 
 	// TODO Refactor into a static utility method for all classes instead of
@@ -341,7 +329,7 @@ public class DistributionAnalysis {
 		for (int pp = 0; pp < size; ++pp) {
 			for (int dd = 0; dd < (int) sectorWidth; ++dd) {
 
-				final int index = pInd.get((int) (pp * sectorWidth + dd));
+				final int index = pInd[(int) (pp * sectorWidth + dd)];
 
 				endocorticalRadii[pp] += eRad[index] / sectorWidth;
 				pericorticalRadii[pp] += pRad[index] / sectorWidth;
@@ -28,9 +28,10 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT.analysis;
 
-import java.util.Vector;
+import java.util.function.IntPredicate;
 
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.selectroi.BoundingBox;
 import sc.fiji.pQCT.selectroi.SelectROI;
 
 public class MassDistribution {
@@ -40,8 +41,9 @@ public class MassDistribution {
 	public final double[] bMCs;
 	private final double sectorWidth;
 	private final double[] boneCenter;
-	private final Vector<Integer> pind;
+	private final int[] pind;
 	private final SelectROI roi;
+	private final boolean legacyRayMarching;
 	private final double[] bMC = new double[360];
 
 	public MassDistribution(final SelectROI roi,
@@ -49,13 +51,15 @@ public class MassDistribution {
 	{
 		pind = determineAlpha.pind;
 		this.roi = roi;
+		legacyRayMarching = details.legacyRayMarching;
 		sectorWidth = details.sectorWidth;
 		height = roi.height;
 		width = roi.width;
 		boneCenter = new double[2];
 		double points = 0;
-		for (int j = 0; j < height; j++) {
-			for (int i = 0; i < width; i++) {
+		final BoundingBox box = roi.sieveBox;
+		for (int j = box.minY; j <= box.maxY; j++) {
+			for (int i = box.minX; i <= box.maxX; i++) {
 				if (roi.sieve[i + j * width] > 0) {
 					boneCenter[0] += i;
 					boneCenter[1] += j;
@@ -74,50 +78,33 @@ public class MassDistribution {
 	private void calculateDistribution() {
 		// Calculate radii in polar coordinate system originating from bone marrow
 		// center of mass
-		final double rIncrement = 0.1;
+		final double rIncrement = RayMarcher.STEP;
+		final RayMarcher marcher = new RayMarcher(width, boneCenter[0],
+			boneCenter[1], legacyRayMarching);
+		final IntPredicate bone = i -> roi.sieve[i] > 0;
 		// Finding endocortical and pericortical borders uMath.sing polar
 		// coordinates
-		for (int et = 0; et < 360; et++) {
-			final double theta = Math.PI / 180.0 * et;
+		RayMarcher.forEachAngle(et -> {
 			bMC[et] = 0;
-			double R = 0;
-			while (roi.sieve[(int) (boneCenter[0] + R * Math.cos(theta)) +
-				((int) ((boneCenter[1] + R * Math.sin(theta))) * width)] > 0 ||
-				roi.sieve[(int) (boneCenter[0] + (R + 0.5) * Math.cos(theta)) +
-					((int) ((boneCenter[1] + (R + 0.5) * Math.sin(theta))) *
-						width)] > 0 || roi.sieve[(int) (boneCenter[0] + (R + 1) * Math.cos(
-							theta)) + ((int) ((boneCenter[1] + (R + 1) * Math.sin(theta))) *
-								width)] > 0 || roi.sieve[(int) (boneCenter[0] + (R + 2) * Math
-									.cos(theta)) + ((int) ((boneCenter[1] + (R + 2) * Math.sin(
-										theta))) * width)] > 0 || roi.sieve[(int) (boneCenter[0] +
-											(R + 3) * Math.cos(theta)) + ((int) ((boneCenter[1] + (R +
-												3) * Math.sin(theta))) * width)] > 0 ||
-				roi.sieve[(int) (boneCenter[0] + (R + 4) * Math.cos(theta)) +
-					((int) ((boneCenter[1] + (R + 4) * Math.sin(theta))) * width)] > 0 ||
-				roi.sieve[(int) (boneCenter[0] + (R + 6) * Math.cos(theta)) +
-					((int) ((boneCenter[1] + (R + 6) * Math.sin(theta))) * width)] > 0)
-			{
-				// Calculate bMC rho*dV, dV=dA*slice_thickness
-				// dA=pi*((r(et)*resolution)^2-((r(et)-0.1)*resolution)^2),
-				// slice_thickness = 1 mm (could be set to actual slice thickness, but
-				// makes no difference for comparisons -> 1 mm is used bMD divided by
-				// 1000, because unit is mg/cm3 and area is mm2
-				final double tempBMD = roi.scaledImage[(int) (boneCenter[0] + R * Math
-					.cos(theta)) + ((int) ((boneCenter[1] + R * Math.sin(theta))) *
-						width)];
-				bMC[et] += tempBMD / 1000.0 * Math.PI / 360.0 * ((R *
+			final double end = marcher.reach(et, 0, bone);
+			// Calculate bMC rho*dV, dV=dA*slice_thickness
+			// dA=pi*((r(et)*resolution)^2-((r(et)-0.1)*resolution)^2),
+			// slice_thickness = 1 mm (could be set to actual slice thickness, but
+			// makes no difference for comparisons -> 1 mm is used bMD divided by
+			// 1000, because unit is mg/cm3 and area is mm2
+			marcher.sample(et, 0, end, null, roi.scaledImage, (R,
+				tempBMD) -> bMC[et] += tempBMD / 1000.0 * Math.PI / 360.0 * ((R *
 					roi.pixelSpacing) * (R * roi.pixelSpacing) - ((R - rIncrement) *
-						roi.pixelSpacing) * ((R - rIncrement) * roi.pixelSpacing));
-				R += rIncrement;
-			}
-		}
+						roi.pixelSpacing) * ((R - rIncrement) * roi.pixelSpacing)));
+			return true;
+		});
 	}
 
 	private void rotateResults() {
 		// Calculate the division and sector values of vBMD
 		for (int pp = 0; pp < bMCs.length; pp++) {
 			for (int dd = 0; dd < sectorWidth; dd++) {
-				bMCs[pp] += bMC[pind.get((int) (pp * sectorWidth + dd))];
+				bMCs[pp] += bMC[pind[(int) (pp * sectorWidth + dd)]];
 			}
 		}
 	}
@@ -0,0 +1,369 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
+
+import sc.fiji.pQCT.io.PixelBuffer;
+
+/**
+ * Marches rays out from a centre in the polar analyses. Rays are sampled every
+ * {@link #STEP} pixels, and the directions of the rays are computed once rather
+ * than at every step. The rays are independent, so the analyses march them in
+ * blocks of angles in parallel.
+ * <p>
+ * The coordinates of every sample are truncated, as the analyses always did.
+ * By default every sample is probed. Optionally the marcher computes how far
+ * the ray goes before a coordinate crosses an integer, as in the voxel
+ * traversal of Amanatides and Woo (1987), and steps the radius over the
+ * samples before that crossing without probing them: they are in the same
+ * pixel. The radius is still stepped one {@link #STEP} at a time, so the
+ * samples and the results are those of the legacy marching, but each pixel
+ * crossed is probed once.
+ */
+final class RayMarcher {
+
+	/** Distance between the samples of a ray. */
+	static final double STEP = 0.1;
+	static final int ANGLES = 360;
+	// Samples ahead of the radius that keep a ray going, so that it crosses
+	// small gaps in the bone
+	private static final double[] AHEAD = { 0.0, 0.5, 1.0, 2.0, 3.0, 4.0, 6.0 };
+	private static final double[] COS = new double[ANGLES];
+	private static final double[] SIN = new double[ANGLES];
+	// Distance from an integer within which a coordinate may round across it
+	private static final double MARGIN = 1e-6;
+
+	static {
+		for (int angle = 0; angle < ANGLES; angle++) {
+			COS[angle] = Math.cos(theta(angle));
+			SIN[angle] = Math.sin(theta(angle));
+		}
+	}
+
+	// Blocks of angles per thread, as the rays differ in length
+	private static final int BLOCKS_PER_THREAD = 4;
+
+	private final int width;
+	private final double x;
+	private final double y;
+	private final boolean legacy;
+
+	/**
+	 * @param legacy true to probe every sample instead of stepping over the
+	 *          samples in the pixel last probed.
+	 */
+	RayMarcher(final int width, final double x, final double y,
+		final boolean legacy)
+	{
+		this.width = width;
+		this.x = x;
+		this.y = y;
+		this.legacy = legacy;
+	}
+
+	/** @return the direction of the ray in radians. */
+	static double theta(final int angle) {
+		return Math.PI / 180.0 * angle;
+	}
+
+	/** @return whether the pixel of the sample at the radius is in the mask. */
+	boolean test(final int angle, final double r, final IntPredicate mask) {
+		return mask.test(index(angle, r));
+	}
+
+	/** @return the value of the image at the sample. */
+	double get(final int angle, final double r, final PixelBuffer image) {
+		return image.get(index(angle, r));
+	}
+
+	/**
+	 * Steps out from the radius until the sample is in the mask, or the radius
+	 * reaches maxR.
+	 *
+	 * @return the radius reached.
+	 */
+	double expand(final int angle, final double r, final IntPredicate mask,
+		final double maxR)
+	{
+		double radius = r;
+		if (legacy) {
+			while (!(test(angle, radius, mask) || radius >= maxR)) {
+				radius += STEP;
+			}
+			return radius;
+		}
+		while (!(test(angle, radius, mask) || radius >= maxR)) {
+			int steps = steps(angle, radius, true);
+			radius += STEP;
+			while (steps-- > 0 && !(radius >= maxR)) {
+				radius += STEP;
+			}
+		}
+		return radius;
+	}
+
+	/**
+	 * Steps in from the radius while it is above the limit, until the sample is
+	 * in the mask.
+	 *
+	 * @return the radius one step out from that sample, or the first radius at
+	 *         or below the limit if there is none.
+	 */
+	double retreat(final int angle, final double r, final double limit,
+		final IntPredicate mask)
+	{
+		double radius = r;
+		while (radius > limit) {
+			if (test(angle, radius, mask)) {
+				return radius + STEP;
+			}
+			int steps = legacy ? 0 : steps(angle, radius, false);
+			radius -= STEP;
+			while (steps-- > 0 && radius > limit) {
+				radius -= STEP;
+			}
+		}
+		return radius;
+	}
+
+	/**
+	 * Steps out from the radius while any of the samples at it and ahead of it
+	 * is in the mask.
+	 *
+	 * @return the radius reached.
+	 */
+	double reach(final int angle, final double r, final IntPredicate mask) {
+		return reach(angle, r, mask, Double.POSITIVE_INFINITY, false);
+	}
+
+	/**
+	 * As {@link #reach(int, double, IntPredicate)}, but only while the radius is
+	 * below maxR. The column and the row offset of the samples are truncated
+	 * together if truncateTogether is true. That is how DistributionAnalysis has
+	 * always found the periosteal border, and it puts a sample in another pixel
+	 * when the column is negative, or so close below an integer that adding the
+	 * row offset rounds it up.
+	 */
+	double reach(final int angle, final double r, final IntPredicate mask,
+		final double maxR, final boolean truncateTogether)
+	{
+		double radius = r;
+		int sample;
+		while ((sample = firstAhead(angle, radius, mask, truncateTogether)) >= 0 &&
+			radius < maxR)
+		{
+			// The samples up to the one in the mask stay in their pixels for as
+			// many steps as the closest of them to a crossing
+			int steps = Integer.MAX_VALUE;
+			for (int ahead = 0; !legacy && ahead <= sample; ahead++) {
+				steps = Math.min(steps, steps(angle, radius + AHEAD[ahead], true));
+			}
+			radius += STEP;
+			while (!legacy && steps-- > 0 && radius < maxR) {
+				radius += STEP;
+			}
+		}
+		return radius;
+	}
+
+	/**
+	 * Steps out from the radius while it is below end, and passes the value of
+	 * the image at each sample in the mask to the action.
+	 *
+	 * @param mask the pixels to sample, or null to sample every pixel.
+	 * @return the radius reached.
+	 */
+	double sample(final int angle, final double r, final double end,
+		final IntPredicate mask, final PixelBuffer image, final Sample action)
+	{
+		double radius = r;
+		while (radius < end) {
+			final int pixel = index(angle, radius);
+			final boolean in = mask == null || mask.test(pixel);
+			final double value = in ? image.get(pixel) : 0.0;
+			int steps = legacy ? 0 : steps(angle, radius, true);
+			do {
+				if (in) {
+					action.accept(radius, value);
+				}
+				radius += STEP;
+			}
+			while (steps-- > 0 && radius < end);
+		}
+		return radius;
+	}
+
+	// The first of the samples at the radius and ahead of it that is in the
+	// mask, or -1 if none is
+	private int firstAhead(final int angle, final double r,
+		final IntPredicate mask, final boolean truncateTogether)
+	{
+		for (int sample = 0; sample < AHEAD.length; sample++) {
+			final double radius = r + AHEAD[sample];
+			final boolean bone;
+			if (truncateTogether) {
+				bone = mask.test((int) (x + radius * COS[angle] + (int) (y + radius *
+					SIN[angle]) * width));
+			}
+			else {
+				bone = mask.test(index(angle, radius));
+			}
+			if (bone) {
+				return sample;
+			}
+		}
+		return -1;
+	}
+
+	// The pixel of the sample with its coordinates truncated
+	private int index(final int angle, final double r) {
+		return (int) (x + r * COS[angle]) + (int) (y + r * SIN[angle]) * width;
+	}
+
+	// The number of steps from the radius, out or in, after which neither
+	// coordinate of the sample has crossed an integer. Truncation only changes
+	// at the integers, so the samples are in the pixel of the first one.
+	private int steps(final int angle, final double r, final boolean out) {
+		final double dx = out ? COS[angle] : -COS[angle];
+		final double dy = out ? SIN[angle] : -SIN[angle];
+		final double distance = Math.min(distance(x + r * COS[angle], dx),
+			distance(y + r * SIN[angle], dy));
+		// Not > when the distance isn't a number
+		return distance > STEP ? (int) Math.min(distance / STEP,
+			Integer.MAX_VALUE) : 0;
+	}
+
+	// The distance along the ray to the next integer of the coordinate, less a
+	// margin for rounding. Zero if the coordinate is within the margin of an
+	// integer on either side, as a sample just below an integer may round up
+	// when it is truncated together with the row offset.
+	private static double distance(final double coordinate,
+		final double direction)
+	{
+		final double below = coordinate - Math.floor(coordinate);
+		final double above = Math.ceil(coordinate) - coordinate;
+		if (below < MARGIN || above < MARGIN) {
+			return 0.0;
+		}
+		return ((direction > 0 ? above : below) - MARGIN) / Math.abs(direction);
+	}
+
+	/**
+	 * Runs the action on every angle in order until it returns false, the way
+	 * the analyses have always looped over the angles. Blocks of angles run in
+	 * parallel on the common pool, but the outcome is that of the serial loop:
+	 * the first angle in order at which the action stops or throws ends the
+	 * run. What the action did for the angles after it must be discarded.
+	 *
+	 * @return the angle at which the action stopped, or {@link #ANGLES}.
+	 */
+	static int forEachAngle(final AngleAction action) {
+		return forEachAngle(action, ForkJoinPool.getCommonPoolParallelism());
+	}
+
+	/**
+	 * @param parallelism the number of threads, 1 to run every angle in the
+	 *          calling thread.
+	 */
+	static int forEachAngle(final AngleAction action, final int parallelism) {
+		if (parallelism <= 1) {
+			return run(action, 0, ANGLES);
+		}
+		final int blocks = Math.min(ANGLES, parallelism * BLOCKS_PER_THREAD);
+		final int[] stops = new int[blocks];
+		final Throwable[] errors = new Throwable[blocks];
+		final List<ForkJoinTask<?>> tasks = new ArrayList<>(blocks);
+		for (int block = 0; block < blocks; block++) {
+			final int b = block;
+			tasks.add(ForkJoinTask.adapt(() -> {
+				try {
+					stops[b] = run(action, from(b, blocks), from(b + 1, blocks));
+				}
+				catch (final RuntimeException | Error e) {
+					errors[b] = e;
+				}
+			}));
+		}
+		ForkJoinPool.commonPool().invoke(ForkJoinTask.adapt(() -> ForkJoinTask
+			.invokeAll(tasks)));
+		for (int block = 0; block < blocks; block++) {
+			if (errors[block] instanceof Error) {
+				throw (Error) errors[block];
+			}
+			if (errors[block] != null) {
+				throw (RuntimeException) errors[block];
+			}
+			if (stops[block] < from(block + 1, blocks)) {
+				return stops[block];
+			}
+		}
+		return ANGLES;
+	}
+
+	/** Clears what was stored for the angles after the one the run stopped at. */
+	static void discardAfter(final int stop, final double[]... perAngle) {
+		for (final double[] values : perAngle) {
+			if (stop < values.length) {
+				Arrays.fill(values, stop + 1, values.length, 0.0);
+			}
+		}
+	}
+
+	private static int from(final int block, final int blocks) {
+		return ANGLES * block / blocks;
+	}
+
+	private static int run(final AngleAction action, final int from,
+		final int to)
+	{
+		for (int angle = from; angle < to; angle++) {
+			if (!action.run(angle)) {
+				return angle;
+			}
+		}
+		return to;
+	}
+
+	interface Sample {
+
+		void accept(double radius, double value);
+	}
+
+	interface AngleAction {
+
+		/** @return false if the analysis stops at the angle. */
+		boolean run(int angle);
+	}
+}
@@ -61,49 +61,49 @@ public class SoftTissueAnalysis {
 			if (roi.softSieve[i] > 0) {
 				// Bone & Marrow not excluded!!
 				limbA += 1;
-				limbD += roi.softScaledImage[i];
-				weightedLimbArea += roi.softScaledImage[i] + 1000.0;
+				limbD += roi.softScaledImage.get(i);
+				weightedLimbArea += roi.softScaledImage.get(i) + 1000.0;
 			}
 			if (roi.softSieve[i] == 2 || roi.softSieve[i] == 4 ||
 				roi.softSieve[i] == 5)
 			{ // Fat
 				fatA += 1;
-				fatD += roi.softScaledImage[i];
-				weightedFatArea += roi.softScaledImage[i] + 1000.0;
+				fatD += roi.softScaledImage.get(i);
+				weightedFatArea += roi.softScaledImage.get(i) + 1000.0;
 			}
 			if (roi.softSieve[i] == 3) {
 				// Muscle no IntraFat
 				muA += 1;
-				muD += roi.softScaledImage[i];
+				muD += roi.softScaledImage.get(i);
 				totalMuA += 1;
-				totalMuD += roi.softScaledImage[i];
+				totalMuD += roi.softScaledImage.get(i);
 			}
 			if (roi.softSieve[i] == 4) {
 				// IntraFat
 				intraMuFatA += 1;
-				intraMuFatD += roi.softScaledImage[i];
+				intraMuFatD += roi.softScaledImage.get(i);
 				totalMuA += 1;
-				totalMuD += roi.softScaledImage[i];
+				totalMuD += roi.softScaledImage.get(i);
 			}
 			if (roi.softSieve[i] == 5) {
 				// subCutFat
 				subCutFatA += 1;
-				subCutFatD += roi.softScaledImage[i];
+				subCutFatD += roi.softScaledImage.get(i);
 			}
 			if (roi.softSieve[i] == 6) {
 				// Bone area
 				boneA += 1;
-				boneD += roi.softScaledImage[i];
+				boneD += roi.softScaledImage.get(i);
 			}
 			if (roi.softSieve[i] == 7) {
 				// MedFat
 				meA += 1;
-				meD += roi.softScaledImage[i];
+				meD += roi.softScaledImage.get(i);
 			}
 			if (roi.eroded[i] == 1) {
 				// PeeledA
 				peeledA += 1;
-				peeledD += roi.softScaledImage[i];
+				peeledD += roi.softScaledImage.get(i);
 			}
 
 		}
@@ -127,7 +127,7 @@ public class SoftTissueAnalysis {
 		for (int i = 0; i < roi.width * roi.height; i++) {
 			if (roi.softSieve[i] == 5) {
 				// subCutFat
-				subCFatPixels[cnt] += roi.softScaledImage[i];
+				subCFatPixels[cnt] += roi.softScaledImage.get(i);
 				++cnt;
 			}
 		}
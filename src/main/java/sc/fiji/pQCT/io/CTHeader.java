@@ -26,51 +26,43 @@ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
 OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 */
 
-package sc.fiji.pQCT;
+package sc.fiji.pQCT.io;
 
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import javax.activation.UnsupportedDataTypeException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
-class CTHeaderReader {
+/**
+ * The measurement site details stored in the header of the CT file (C*.M*)
+ * that accompanies a Stratec image.
+ */
+public class CTHeader {
 
 	private static final int PERCENT_OFFSET = 334;
 	private static final int SITE_LENGTH_OFFSET = 1316;
-	private final File fileIn;
-	double percent;
-	String site;
-
-	CTHeaderReader(final String fileName) {
-		fileIn = new File(fileName);
-	}
+	public final double percent;
+	public final String site;
 
-	private void readHeader(final DataInputStream input) throws IOException {
-		input.skipBytes(PERCENT_OFFSET);
-		byte[] temp = new byte[8];
-		input.read(temp);
-		ByteBuffer tempbb = ByteBuffer.wrap(temp);
-		tempbb  = tempbb.order(ByteOrder.LITTLE_ENDIAN);
-		percent = tempbb.getDouble();
-		input.skipBytes(SITE_LENGTH_OFFSET - PERCENT_OFFSET-8);
-		final int siteLength = input.readByte();
-		final byte[] siteBytes = new byte[siteLength];
-		input.read(siteBytes, 0, siteLength);
-		site = new String(siteBytes);
+	CTHeader(final double percent, final String site) {
+		this.percent = percent;
+		this.site = site;
 	}
 
-	// Read the file to memory
-	void read() throws Exception {
-		try (BufferedInputStream inputStream = new BufferedInputStream(
-			new FileInputStream(fileIn)))
-		{
-			final DataInputStream dataInputStream = new DataInputStream(inputStream);
-			readHeader(dataInputStream);
+	/**
+	 * Reads only the header of a CT file.
+	 *
+	 * @param file a C*.M* file.
+	 * @return the percent length and site of the measurement.
+	 * @throws UnsupportedDataTypeException if the file can't be read.
+	 */
+	public static CTHeader read(final File file)
+		throws UnsupportedDataTypeException
+	{
+		try {
+			final ByteBuffer buffer = StratecHeader.readHeaderBytes(file);
+			return new CTHeader(buffer.getDouble(PERCENT_OFFSET), StratecHeader
+				.getNByteString(buffer, SITE_LENGTH_OFFSET));
 		}
 		catch (final Exception e) {
 			throw new UnsupportedDataTypeException(
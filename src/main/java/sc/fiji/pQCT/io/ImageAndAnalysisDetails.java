@@ -62,6 +62,12 @@ public class ImageAndAnalysisDetails {
 	public final String roiChoice;
 	public final String roiChoiceSt;
 	public final String rotationChoice;
+	public final PixelBuffer.Storage pixelStorage;
+	// Find bones by labelling connected components instead of tracing edges
+	public final boolean componentLabelling;
+	// Probe every sample of the rays of the polar analyses, as before, unless
+	// probing each pixel the rays cross once is chosen. The results are equal.
+	public final boolean legacyRayMarching;
 	public final String[] choiceLabels;
 	public final String[] rotationLabels;
 	public final boolean preventPeeling;
@@ -105,6 +111,12 @@ public class ImageAndAnalysisDetails {
 		roiChoice = alignmentStrings[0];
 		roiChoiceSt = alignmentStrings[1];
 		rotationChoice = alignmentStrings[2];
+		pixelStorage = alignmentStrings.length > 3 ? PixelBuffer.Storage.valueOf(
+			alignmentStrings[3].toUpperCase()) : PixelBuffer.Storage.DOUBLE;
+		componentLabelling = alignmentStrings.length > 4 && "Component_labelling"
+			.equals(alignmentStrings[4]);
+		legacyRayMarching = alignmentStrings.length <= 5 || !"Pixel_crossings"
+			.equals(alignmentStrings[5]);
 		this.choiceLabels = choiceLabels;
 		this.rotationLabels = rotationLabels;
 
@@ -0,0 +1,396 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+
+/**
+ * The pixels of a scaled image. With DOUBLE storage the scaled values are kept
+ * as is. FLOAT storage halves the memory at the cost of precision. SHORT
+ * storage keeps the original integer samples and scales them on every read,
+ * which gives the same values as DOUBLE in a quarter of the memory. Values set
+ * in a SHORT buffer are rounded to the nearest sample.
+ */
+public abstract class PixelBuffer {
+
+	public enum Storage {
+			DOUBLE, FLOAT, SHORT
+	}
+
+	final double scalingFactor;
+	final double constant;
+
+	private PixelBuffer(final double scalingFactor, final double constant) {
+		this.scalingFactor = scalingFactor;
+		this.constant = constant;
+	}
+
+	/**
+	 * Creates a buffer of zeros, or of the sample 0 for SHORT storage.
+	 *
+	 * @param storage how the values are stored.
+	 * @param size number of pixels.
+	 * @param scalingFactor slope of the scaling of the samples.
+	 * @param constant intercept of the scaling of the samples.
+	 * @param sampleOffset the sample stored as 0 in SHORT storage. The samples
+	 *          in [sampleOffset - 2^15, sampleOffset + 2^15) can be stored.
+	 * @return the buffer.
+	 */
+	public static PixelBuffer allocate(final Storage storage, final int size,
+		final double scalingFactor, final double constant, final int sampleOffset)
+	{
+		switch (storage) {
+			case FLOAT:
+				return new FloatBuffer(new float[size], scalingFactor, constant);
+			case SHORT:
+				return new ShortBuffer(new short[size], scalingFactor, constant,
+					sampleOffset);
+			default:
+				return new DoubleBuffer(new double[size], scalingFactor, constant);
+		}
+	}
+
+	/**
+	 * Wraps the values into a DOUBLE buffer without copying them.
+	 *
+	 * @param values scaled pixel values.
+	 * @return the buffer.
+	 */
+	public static PixelBuffer wrap(final double[] values) {
+		return new DoubleBuffer(values, 1.0, 0.0);
+	}
+
+	public abstract double get(int index);
+
+	public abstract void set(int index, double value);
+
+	public abstract int size();
+
+	public abstract Storage getStorage();
+
+	public abstract PixelBuffer copy();
+
+	/** @return a new buffer with the same storage, scaling and size */
+	public abstract PixelBuffer create();
+
+	/**
+	 * Returns a view of this buffer that is copied only when it's first written
+	 * to. This buffer must not change while the view is in use.
+	 *
+	 * @return a copy-on-write view.
+	 */
+	public PixelBuffer view() {
+		return new View(this, null, 0.0);
+	}
+
+	/**
+	 * Returns a copy-on-write view of this buffer that reads the given value
+	 * for the pixels outside a mask. This buffer, and the mask, must not change
+	 * while the view is in use.
+	 *
+	 * @param inside tells whether a pixel index is within the mask.
+	 * @param outside value of the pixels outside the mask.
+	 * @return the masked view.
+	 */
+	public PixelBuffer masked(final IntPredicate inside, final double outside) {
+		return new View(this, inside, outside);
+	}
+
+	/** Sets every pixel to the value. */
+	public void fill(final double value) {
+		for (int i = 0; i < size(); i++) {
+			set(i, value);
+		}
+	}
+
+	public DoubleStream stream() {
+		return IntStream.range(0, size()).mapToDouble(this::get);
+	}
+
+	public double[] toArray() {
+		return stream().toArray();
+	}
+
+	// Sets the pixel to the scaled value of the sample
+	void setSample(final int index, final int sample) {
+		set(index, sample * scalingFactor + constant);
+	}
+
+	private static final class View extends PixelBuffer {
+
+		private final PixelBuffer source;
+		private final IntPredicate inside;
+		private final double outside;
+		// The private copy made on the first write
+		private PixelBuffer copy;
+
+		private View(final PixelBuffer source, final IntPredicate inside,
+			final double outside)
+		{
+			super(source.scalingFactor, source.constant);
+			// Views of unwritten views read the original buffer directly
+			if (source instanceof View && ((View) source).copy == null &&
+				((View) source).inside == null)
+			{
+				this.source = ((View) source).source;
+			}
+			else {
+				this.source = source;
+			}
+			this.inside = inside;
+			this.outside = outside;
+		}
+
+		@Override
+		public double get(final int index) {
+			if (copy != null) {
+				return copy.get(index);
+			}
+			if (inside == null || inside.test(index)) {
+				return source.get(index);
+			}
+			return outside;
+		}
+
+		@Override
+		public void set(final int index, final double value) {
+			materialize().set(index, value);
+		}
+
+		@Override
+		void setSample(final int index, final int sample) {
+			materialize().setSample(index, sample);
+		}
+
+		private PixelBuffer materialize() {
+			if (copy == null) {
+				final PixelBuffer values = source.copy();
+				if (inside != null) {
+					for (int i = 0; i < values.size(); i++) {
+						if (!inside.test(i)) {
+							values.set(i, outside);
+						}
+					}
+				}
+				copy = values;
+			}
+			return copy;
+		}
+
+		@Override
+		public int size() {
+			return source.size();
+		}
+
+		@Override
+		public Storage getStorage() {
+			return source.getStorage();
+		}
+
+		@Override
+		public PixelBuffer copy() {
+			return copy != null ? copy.copy() : new View(source, inside, outside);
+		}
+
+		@Override
+		public PixelBuffer create() {
+			return source.create();
+		}
+	}
+
+	private static final class DoubleBuffer extends PixelBuffer {
+
+		private final double[] values;
+
+		private DoubleBuffer(final double[] values, final double scalingFactor,
+			final double constant)
+		{
+			super(scalingFactor, constant);
+			this.values = values;
+		}
+
+		@Override
+		public double get(final int index) {
+			return values[index];
+		}
+
+		@Override
+		public void set(final int index, final double value) {
+			values[index] = value;
+		}
+
+		@Override
+		public void fill(final double value) {
+			Arrays.fill(values, value);
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		@Override
+		public Storage getStorage() {
+			return Storage.DOUBLE;
+		}
+
+		@Override
+		public PixelBuffer copy() {
+			return new DoubleBuffer(values.clone(), scalingFactor, constant);
+		}
+
+		@Override
+		public PixelBuffer create() {
+			return new DoubleBuffer(new double[values.length], scalingFactor,
+				constant);
+		}
+
+		@Override
+		public double[] toArray() {
+			return values.clone();
+		}
+	}
+
+	private static final class FloatBuffer extends PixelBuffer {
+
+		private final float[] values;
+
+		private FloatBuffer(final float[] values, final double scalingFactor,
+			final double constant)
+		{
+			super(scalingFactor, constant);
+			this.values = values;
+		}
+
+		@Override
+		public double get(final int index) {
+			return values[index];
+		}
+
+		@Override
+		public void set(final int index, final double value) {
+			values[index] = (float) value;
+		}
+
+		@Override
+		public void fill(final double value) {
+			Arrays.fill(values, (float) value);
+		}
+
+		@Override
+		public int size() {
+			return values.length;
+		}
+
+		@Override
+		public Storage getStorage() {
+			return Storage.FLOAT;
+		}
+
+		@Override
+		public PixelBuffer copy() {
+			return new FloatBuffer(values.clone(), scalingFactor, constant);
+		}
+
+		@Override
+		public PixelBuffer create() {
+			return new FloatBuffer(new float[values.length], scalingFactor,
+				constant);
+		}
+	}
+
+	private static final class ShortBuffer extends PixelBuffer {
+
+		private final short[] samples;
+		private final int sampleOffset;
+
+		private ShortBuffer(final short[] samples, final double scalingFactor,
+			final double constant, final int sampleOffset)
+		{
+			super(scalingFactor, constant);
+			this.samples = samples;
+			this.sampleOffset = sampleOffset;
+		}
+
+		@Override
+		public double get(final int index) {
+			// Same arithmetic as scaling the int sample, so the values are
+			// identical to DOUBLE storage
+			final int sample = samples[index] + sampleOffset;
+			return sample * scalingFactor + constant;
+		}
+
+		@Override
+		public void set(final int index, final double value) {
+			final long sample = Math.round((value - constant) / scalingFactor);
+			setSample(index, (int) Math.max(Integer.MIN_VALUE, Math.min(
+				Integer.MAX_VALUE, sample)));
+		}
+
+		@Override
+		void setSample(final int index, final int sample) {
+			final long stored = (long) sample - sampleOffset;
+			samples[index] = (short) Math.max(Short.MIN_VALUE, Math.min(
+				Short.MAX_VALUE, stored));
+		}
+
+		@Override
+		public void fill(final double value) {
+			if (samples.length > 0) {
+				set(0, value);
+				Arrays.fill(samples, samples[0]);
+			}
+		}
+
+		@Override
+		public int size() {
+			return samples.length;
+		}
+
+		@Override
+		public Storage getStorage() {
+			return Storage.SHORT;
+		}
+
+		@Override
+		public PixelBuffer copy() {
+			return new ShortBuffer(samples.clone(), scalingFactor, constant,
+				sampleOffset);
+		}
+
+		@Override
+		public PixelBuffer create() {
+			return new ShortBuffer(new short[samples.length], scalingFactor,
+				constant, sampleOffset);
+		}
+	}
+}
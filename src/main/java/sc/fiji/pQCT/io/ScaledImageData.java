@@ -28,13 +28,19 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT.io;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.stream.IntStream;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ScaledImageData {
 
-	public final double[] scaledImage;
-	public final double[] softScaledImage;
+	// Largest range of values for which the histogram median is used
+	private static final int MAX_HISTOGRAM_RANGE = 1 << 20;
+
+	public final PixelBuffer scaledImage;
+	public final PixelBuffer softScaledImage;
 	public final double minimum;
 	public final int width;
 	public final int height;
@@ -45,22 +51,118 @@ public class ScaledImageData {
 		final int heightIn, final double voxelSize, final double scalingFactor,
 		final double constant, final boolean flipHorizontal,
 		final boolean flipVertical, final boolean noFiltering)
+	{
+		this(data, widthIn, heightIn, voxelSize, scalingFactor, constant,
+			flipHorizontal, flipVertical, noFiltering, ForkJoinPool
+				.getCommonPoolParallelism());
+	}
+
+	public ScaledImageData(final int[] data, final int widthIn,
+		final int heightIn, final double voxelSize, final double scalingFactor,
+		final double constant, final boolean flipHorizontal,
+		final boolean flipVertical, final boolean noFiltering,
+		final int parallelism)
+	{
+		this(data, widthIn, heightIn, voxelSize, scalingFactor, constant,
+			flipHorizontal, flipVertical, noFiltering, parallelism,
+			PixelBuffer.Storage.DOUBLE);
+	}
+
+	/**
+	 * Scales and filters the image in row bands in parallel. The result is
+	 * identical to filtering it serially.
+	 *
+	 * @param parallelism the number of bands processed in parallel, 1 to run
+	 *          everything in the calling thread.
+	 * @param storage how the scaled images are stored. SHORT falls back to
+	 *          DOUBLE if the data doesn't fit in 16 bits.
+	 */
+	public ScaledImageData(final int[] data, final int widthIn,
+		final int heightIn, final double voxelSize, final double scalingFactor,
+		final double constant, final boolean flipHorizontal,
+		final boolean flipVertical, final boolean noFiltering,
+		final int parallelism, final PixelBuffer.Storage storage)
 	{
 		height = heightIn;
 		width = widthIn;
 		pixelSpacing = voxelSize;
 		final int filterSize = 3;
 		final int size = width * height;
-		final double[] unFiltered = IntStream.range(0, size).mapToDouble(
-			i -> data[i]).map(x -> x * scalingFactor).map(d -> d + constant)
-			.toArray();
-		minimum = Arrays.stream(unFiltered).min().orElse(Double.POSITIVE_INFINITY);
-		softScaledImage = medianFilter(unFiltered, width, height, 7); // Median
-		if (noFiltering) {
-			scaledImage = unFiltered;
+		final int bands = Math.max(1, Math.min(parallelism, height));
+		final ForkJoinPool pool = bands == 1 ? null : parallelism == ForkJoinPool
+			.getCommonPoolParallelism() ? ForkJoinPool.commonPool()
+				: new ForkJoinPool(parallelism);
+		try {
+			final double[] bandMinima = new double[bands];
+			final int[] bandMinValues = new int[bands];
+			final int[] bandMaxValues = new int[bands];
+			inBands(pool, bands, (band, from, to) -> {
+				double min = Double.POSITIVE_INFINITY;
+				int minValue = Integer.MAX_VALUE;
+				int maxValue = Integer.MIN_VALUE;
+				for (int i = from * width; i < to * width; i++) {
+					min = Math.min(min, data[i] * scalingFactor + constant);
+					minValue = Math.min(minValue, data[i]);
+					maxValue = Math.max(maxValue, data[i]);
+				}
+				bandMinima[band] = min;
+				bandMinValues[band] = minValue;
+				bandMaxValues[band] = maxValue;
+			});
+			minimum = Arrays.stream(bandMinima).min().orElse(
+				Double.POSITIVE_INFINITY);
+			final int minValue = size == 0 ? 0 : Arrays.stream(bandMinValues).min()
+				.orElse(0);
+			final int maxValue = size == 0 ? 0 : Arrays.stream(bandMaxValues).max()
+				.orElse(0);
+			final long range = (long) maxValue - minValue + 1;
+			// The sample whose scaled value is the minimum
+			final int minimumSample = scalingFactor < 0 ? maxValue : minValue;
+			final PixelBuffer.Storage actualStorage = storage ==
+				PixelBuffer.Storage.SHORT && range > 1 << 16
+					? PixelBuffer.Storage.DOUBLE : storage;
+			final int sampleOffset = minValue + (1 << 15);
+			if (range <= MAX_HISTOGRAM_RANGE) {
+				softScaledImage = PixelBuffer.allocate(actualStorage, size,
+					scalingFactor, constant, sampleOffset);
+				scaledImage = PixelBuffer.allocate(actualStorage, size, scalingFactor,
+					constant, sampleOffset);
+				// Both filters in one sweep, the rows of a band are read once
+				inBands(pool, bands, (band, from, to) -> {
+					final HistogramMedian soft = new HistogramMedian((int) range, 7 * 7 /
+						2);
+					final HistogramMedian hard = new HistogramMedian((int) range,
+						filterSize * filterSize / 2);
+					for (int row = from; row < to; row++) {
+						histogramMedianFilterRow(data, minValue, minimumSample, row, 7,
+							soft, softScaledImage);
+						if (noFiltering) {
+							for (int i = row * width; i < (row + 1) * width; i++) {
+								scaledImage.setSample(i, data[i]);
+							}
+						}
+						else {
+							histogramMedianFilterRow(data, minValue, minimumSample, row,
+								filterSize, hard, scaledImage);
+						}
+					}
+				});
+			}
+			else {
+				final double[] unFiltered = new double[size];
+				for (int i = 0; i < size; i++) {
+					unFiltered[i] = data[i] * scalingFactor + constant;
+				}
+				softScaledImage = toStorage(medianFilter(unFiltered, width, height, 7),
+					actualStorage);
+				scaledImage = toStorage(noFiltering ? unFiltered : medianFilter(
+					unFiltered, width, height, filterSize), actualStorage);
+			}
 		}
-		else {
-			scaledImage = medianFilter(unFiltered, width, height, filterSize); // Median
+		finally {
+			if (pool != null && pool != ForkJoinPool.commonPool()) {
+				pool.shutdown();
+			}
 		}
 		if (flipHorizontal) {
 			// Flip the image around the horizontal axis...
@@ -72,6 +174,39 @@ public class ScaledImageData {
 		}
 	}
 
+	private static PixelBuffer toStorage(final double[] values,
+		final PixelBuffer.Storage storage)
+	{
+		if (storage != PixelBuffer.Storage.FLOAT) {
+			return PixelBuffer.wrap(values);
+		}
+		final PixelBuffer buffer = PixelBuffer.allocate(storage, values.length, 1.0,
+			0.0, 0);
+		for (int i = 0; i < values.length; i++) {
+			buffer.set(i, values[i]);
+		}
+		return buffer;
+	}
+
+	// Runs the action on contiguous bands of rows. The bands read each other's
+	// rows as their halo, but only write their own
+	private void inBands(final ForkJoinPool pool, final int bands,
+		final BandAction action)
+	{
+		if (pool == null) {
+			action.run(0, 0, height);
+			return;
+		}
+		final List<ForkJoinTask<?>> tasks = new ArrayList<>(bands);
+		for (int band = 0; band < bands; band++) {
+			final int b = band;
+			final int from = (int) ((long) height * band / bands);
+			final int to = (int) ((long) height * (band + 1) / bands);
+			tasks.add(ForkJoinTask.adapt(() -> action.run(b, from, to)));
+		}
+		pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+	}
+
 	private void flipHorizontally() {
 		final long midW = (long) (width / 2.0);
 		for (int j = 0; j < height; ++j) {
@@ -79,8 +214,8 @@ public class ScaledImageData {
 			for (int i = 0; i < midW; ++i) {
 				final int sourceIndex = offset + i;
 				final int targetIndex = offset + width - 1 - i;
-				scaledImage[targetIndex] = scaledImage[sourceIndex];
-				softScaledImage[targetIndex] = softScaledImage[sourceIndex];
+				scaledImage.set(targetIndex, scaledImage.get(sourceIndex));
+				softScaledImage.set(targetIndex, softScaledImage.get(sourceIndex));
 			}
 		}
 	}
@@ -91,8 +226,8 @@ public class ScaledImageData {
 			for (int i = 0; i < width; ++i) {
 				final int sourceIndex = j * width + i;
 				final int targetIndex = (height - j - 1) * width + i;
-				scaledImage[targetIndex] = scaledImage[sourceIndex];
-				softScaledImage[targetIndex] = softScaledImage[sourceIndex];
+				scaledImage.set(targetIndex, scaledImage.get(sourceIndex));
+				softScaledImage.set(targetIndex, softScaledImage.get(sourceIndex));
 			}
 		}
 	}
@@ -124,4 +259,114 @@ public class ScaledImageData {
 		}
 		return filtered;
 	}
+
+	// Median filter with a sliding window histogram (Huang et al. 1979) in the
+	// integer domain. The medians are scaled afterwards: scaling is monotonic,
+	// so the result is identical to medianFilter of the scaled data, frame
+	// included.
+	private void histogramMedianFilterRow(final int[] data, final int minValue,
+		final int minimumSample, final int row, final int filterSize,
+		final HistogramMedian histogram, final PixelBuffer filtered)
+	{
+		// Fill the frame with min value to get it from messing up with edge
+		// detection
+		for (int i = row * width; i < (row + 1) * width; i++) {
+			filtered.setSample(i, minimumSample);
+		}
+		final int noGo = filterSize / 2;
+		if (row < noGo || row >= height - noGo || width < filterSize) {
+			return;
+		}
+		// Start with the window at the left edge
+		for (int rowOffset = -noGo; rowOffset <= noGo; rowOffset++) {
+			final int offset = (row + rowOffset) * width;
+			for (int col = 0; col < filterSize; col++) {
+				histogram.add(data[offset + col] - minValue);
+			}
+		}
+		for (int col = noGo; col < width - noGo; col++) {
+			if (col > noGo) {
+				// Slide the window one column to the right
+				for (int rowOffset = -noGo; rowOffset <= noGo; rowOffset++) {
+					final int offset = (row + rowOffset) * width;
+					histogram.remove(data[offset + col - noGo - 1] - minValue);
+					histogram.add(data[offset + col + noGo] - minValue);
+				}
+			}
+			filtered.setSample(row * width + col, histogram.median() + minValue);
+		}
+		// Empty the histogram for the next row
+		for (int rowOffset = -noGo; rowOffset <= noGo; rowOffset++) {
+			final int offset = (row + rowOffset) * width;
+			for (int col = width - filterSize; col < width; col++) {
+				histogram.remove(data[offset + col] - minValue);
+			}
+		}
+	}
+
+	private interface BandAction {
+
+		void run(int band, int fromRow, int toRow);
+	}
+
+	// A histogram with coarse bins of 256 values, so that the median can move
+	// over empty stretches of the range quickly
+	private static final class HistogramMedian {
+
+		private final int[] fine;
+		private final int[] coarse;
+		// Rank of the median in the window
+		private final int rank;
+		private int median;
+		// The number of values smaller than median
+		private int below;
+
+		private HistogramMedian(final int range, final int rank) {
+			coarse = new int[(range >> 8) + 1];
+			fine = new int[coarse.length << 8];
+			this.rank = rank;
+		}
+
+		private void add(final int value) {
+			fine[value]++;
+			coarse[value >> 8]++;
+			if (value < median) {
+				below++;
+			}
+		}
+
+		private void remove(final int value) {
+			fine[value]--;
+			coarse[value >> 8]--;
+			if (value < median) {
+				below--;
+			}
+		}
+
+		private int median() {
+			while (below > rank) {
+				final int bin = median >> 8;
+				if ((median & 0xFF) == 0 && below - coarse[bin - 1] > rank) {
+					below -= coarse[bin - 1];
+					median -= 256;
+				}
+				else {
+					median--;
+					below -= fine[median];
+				}
+			}
+			while (below + fine[median] <= rank) {
+				final int bin = median >> 8;
+				if ((median & 0xFF) == 0 && below + coarse[bin] <= rank) {
+					below += coarse[bin];
+					median += 256;
+				}
+				else {
+					below += fine[median];
+					median++;
+				}
+			}
+			return median;
+		}
+	}
 }
@@ -0,0 +1,210 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.activation.UnsupportedDataTypeException;
+
+/**
+ * The header of a Stratec pQCT image file (I*.M*). It can be read on its own
+ * without touching the pixel data that follows it.
+ */
+public class StratecHeader {
+
+	public static final int HEADER_LENGTH = 1609;
+	public final String fileName;
+	public final String directory;
+	public final String patName;
+	public final long patNo;
+	public final int patMeasNo;
+	public final long patBirth;
+	public final long measDate;
+	public final double voxelSize;
+	public final int picX0;
+	public final int picY0;
+	public final int picMatrixX;
+	public final int picMatrixY;
+	public final String measInfo;
+	public final String device;
+	public final String patID;
+	public final double objLen;
+
+	StratecHeader(final File file, final ByteBuffer buffer)
+		throws UnsupportedDataTypeException
+	{
+		fileName = file.getName();
+		directory = file.getParent() + "/";
+		device = getNByteString(buffer, 1050);
+		if (!device.toLowerCase().contains(".typ")) {
+			throw new UnsupportedDataTypeException("Device string not found.");
+		}
+		voxelSize = buffer.getDouble(12);
+		objLen = buffer.getDouble(318);
+		measInfo = getNByteString(buffer, 662);
+		measDate = buffer.getInt(986);
+		patMeasNo = buffer.getShort(1085);
+		patNo = buffer.getInt(1087);
+		patBirth = buffer.getInt(1091);
+		patName = getNByteString(buffer, 1099);
+		patID = getNByteString(buffer, 1282);
+		picX0 = buffer.getShort(1525);
+		picY0 = buffer.getShort(1527);
+		picMatrixX = buffer.getShort(1529);
+		picMatrixY = buffer.getShort(1531);
+	}
+
+	private StratecHeader(final DataInput input) throws IOException {
+		fileName = input.readUTF();
+		directory = input.readUTF();
+		patName = input.readUTF();
+		patNo = input.readLong();
+		patMeasNo = input.readInt();
+		patBirth = input.readLong();
+		measDate = input.readLong();
+		voxelSize = input.readDouble();
+		picX0 = input.readInt();
+		picY0 = input.readInt();
+		picMatrixX = input.readInt();
+		picMatrixY = input.readInt();
+		measInfo = input.readUTF();
+		device = input.readUTF();
+		patID = input.readUTF();
+		objLen = input.readDouble();
+	}
+
+	/**
+	 * Reads only the header of a Stratec image file.
+	 *
+	 * @param file an I*.M* file.
+	 * @return the parsed header.
+	 * @throws IOException if the file can't be read or isn't a Stratec file.
+	 */
+	public static StratecHeader read(final File file) throws IOException {
+		return new StratecHeader(file, readHeaderBytes(file));
+	}
+
+	/**
+	 * Reads the first {@link #HEADER_LENGTH} bytes of a Stratec file.
+	 *
+	 * @param file a Stratec file.
+	 * @return a little-endian buffer with the header bytes.
+	 * @throws IOException if the file is too short or can't be read.
+	 */
+	public static ByteBuffer readHeaderBytes(final File file) throws IOException {
+		if (file.length() < HEADER_LENGTH) {
+			throw new IOException("File length < " + HEADER_LENGTH + " bytes.");
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH).order(
+			ByteOrder.LITTLE_ENDIAN);
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ))
+		{
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, buffer.position()) < 0) {
+					throw new IOException("Unexpected end of file.");
+				}
+			}
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns the header as the "Info" property of a Stratec image, one
+	 * "name: value" pair per line. PqctAnalysis reads its calibration and
+	 * details from these.
+	 *
+	 * @return the info property.
+	 */
+	public String getInfo() {
+		final String[] propertyNames = { "File Name", "File Path", "Pixel Spacing",
+			"ObjLen", "MeasInfo", "Acquisition Date", "Device", "PatMeasNo", "PatNo",
+			"Patient's Birth Date", "Patient's Name", "Patient ID", "PicX0", "PicY0",
+			"Width", "Height", "Stratec File" };
+		final String[] propertyValues = { fileName, directory, Double.toString(
+			voxelSize), Double.toString(objLen), measInfo, Long.toString(measDate),
+			device, Integer.toString(patMeasNo), Long.toString(patNo), Long.toString(
+				patBirth), patName, patID, Integer.toString(picX0), Integer.toString(
+					picY0), Integer.toString(picMatrixX), Integer.toString(picMatrixY),
+			"1" };
+		final StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < propertyNames.length; ++i) {
+			builder.append(propertyNames[i]).append(": ").append(propertyValues[i])
+				.append("\n");
+		}
+		return builder.toString();
+	}
+
+	// A length byte followed by the characters. A length that doesn't fit the
+	// buffer means the file is corrupt or not a Stratec file.
+	static String getNByteString(final ByteBuffer buffer, final int pos)
+		throws UnsupportedDataTypeException
+	{
+		buffer.position(pos);
+		final byte n = buffer.get();
+		if (n < 0 || n > buffer.remaining()) {
+			throw new UnsupportedDataTypeException("Invalid string length " + n +
+				" at byte " + pos + ".");
+		}
+		final byte[] bytes = new byte[n];
+		buffer.get(bytes);
+		return new String(bytes);
+	}
+
+	static StratecHeader readFrom(final DataInput input) throws IOException {
+		return new StratecHeader(input);
+	}
+
+	void writeTo(final DataOutput output) throws IOException {
+		output.writeUTF(fileName);
+		output.writeUTF(directory);
+		output.writeUTF(patName);
+		output.writeLong(patNo);
+		output.writeInt(patMeasNo);
+		output.writeLong(patBirth);
+		output.writeLong(measDate);
+		output.writeDouble(voxelSize);
+		output.writeInt(picX0);
+		output.writeInt(picY0);
+		output.writeInt(picMatrixX);
+		output.writeInt(picMatrixY);
+		output.writeUTF(measInfo);
+		output.writeUTF(device);
+		output.writeUTF(patID);
+		output.writeDouble(objLen);
+	}
+}
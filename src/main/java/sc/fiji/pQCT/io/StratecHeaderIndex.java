@@ -0,0 +1,341 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import ij.IJ;
+
+/**
+ * A persistent catalogue of the Stratec files in a directory tree built from
+ * the file headers only. The image (I*.M*), CT (C*.M*) and scout (S*.M*) files
+ * of one measurement are grouped together. Updating the index only re-reads
+ * files whose size or modification time has changed.
+ */
+public class StratecHeaderIndex {
+
+	private static final int MAGIC = 0x70514354;
+	private static final int VERSION = 1;
+	private static final Pattern STRATEC_FILE = Pattern.compile(
+		"[ICS]\\d+\\.M\\d+", Pattern.CASE_INSENSITIVE);
+	private final File indexFile;
+	// Indexed files by absolute path
+	private final Map<String, FileEntry> entries = new TreeMap<>();
+	private final Map<String, Measurement> measurements = new LinkedHashMap<>();
+	private final Map<String, List<Measurement>> byPatID = new HashMap<>();
+	private final Map<Long, List<Measurement>> byPatNo = new HashMap<>();
+	private final Map<Long, List<Measurement>> byMeasDate = new HashMap<>();
+
+	private StratecHeaderIndex(final File indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	/**
+	 * Opens an index, loading its earlier contents if the file exists.
+	 *
+	 * @param indexFile the file where the index is stored.
+	 * @return the index.
+	 * @throws IOException if an existing index file can't be read.
+	 */
+	public static StratecHeaderIndex open(final File indexFile)
+		throws IOException
+	{
+		final StratecHeaderIndex index = new StratecHeaderIndex(indexFile);
+		if (indexFile.exists()) {
+			index.load();
+		}
+		index.group();
+		return index;
+	}
+
+	/**
+	 * Walks the directory tree and re-reads the headers of new or changed
+	 * files. Files that have been removed from the tree are dropped.
+	 *
+	 * @param root the root of the directory tree.
+	 * @return the number of headers read.
+	 * @throws IOException if walking the tree fails.
+	 */
+	public int update(final File root) throws IOException {
+		final String rootPath = root.getAbsolutePath();
+		final Set<String> seen = new HashSet<>();
+		final int[] read = { 0 };
+		Files.walkFileTree(root.toPath(), new SimpleFileVisitor<Path>() {
+
+			@Override
+			public FileVisitResult visitFile(final Path path,
+				final BasicFileAttributes attributes)
+			{
+				final String name = path.getFileName().toString();
+				if (!attributes.isRegularFile() || !STRATEC_FILE.matcher(name)
+					.matches())
+				{
+					return FileVisitResult.CONTINUE;
+				}
+				final String key = path.toAbsolutePath().toString();
+				seen.add(key);
+				final long size = attributes.size();
+				final long modified = attributes.lastModifiedTime().toMillis();
+				final FileEntry entry = entries.get(key);
+				if (entry == null || entry.size != size || entry.modified != modified) {
+					entries.put(key, FileEntry.read(path.toFile(), size, modified));
+					read[0]++;
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(final Path path,
+				final IOException e)
+			{
+				// Skip unreadable files and directories instead of ending the walk
+				IJ.log("Indexing " + path + " failed: " + e.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		entries.keySet().removeIf(path -> isUnder(path, rootPath) && !seen
+			.contains(path));
+		group();
+		return read[0];
+	}
+
+	/**
+	 * Writes the index to its file. The old index is replaced only once the
+	 * new one has been written completely.
+	 *
+	 * @throws IOException if writing fails.
+	 */
+	public void save() throws IOException {
+		final File temp = new File(indexFile.getPath() + ".tmp");
+		try (final DataOutputStream output = new DataOutputStream(
+			new BufferedOutputStream(new FileOutputStream(temp))))
+		{
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeInt(entries.size());
+			for (final FileEntry entry : entries.values()) {
+				entry.writeTo(output);
+			}
+		}
+		Files.move(temp.toPath(), indexFile.toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/** @return all indexed measurements */
+	public Collection<Measurement> measurements() {
+		return Collections.unmodifiableCollection(measurements.values());
+	}
+
+	public List<Measurement> findByPatID(final String patID) {
+		return Collections.unmodifiableList(byPatID.getOrDefault(patID,
+			Collections.emptyList()));
+	}
+
+	public List<Measurement> findByPatNo(final long patNo) {
+		return Collections.unmodifiableList(byPatNo.getOrDefault(patNo,
+			Collections.emptyList()));
+	}
+
+	public List<Measurement> findByMeasDate(final long measDate) {
+		return Collections.unmodifiableList(byMeasDate.getOrDefault(measDate,
+			Collections.emptyList()));
+	}
+
+	private static boolean isUnder(final String path, final String root) {
+		return path.equals(root) || path.startsWith(root.endsWith(File.separator)
+			? root : root + File.separator);
+	}
+
+	private void load() throws IOException {
+		try (final DataInputStream input = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(indexFile))))
+		{
+			if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+				throw new IOException("Not a Stratec header index: " + indexFile);
+			}
+			final int n = input.readInt();
+			for (int i = 0; i < n; i++) {
+				final FileEntry entry = FileEntry.readFrom(input);
+				entries.put(entry.path, entry);
+			}
+		}
+	}
+
+	// Group the I, C and S files of each measurement, and index the lookups
+	private void group() {
+		measurements.clear();
+		byPatID.clear();
+		byPatNo.clear();
+		byMeasDate.clear();
+		// The I, C and S file of each measurement, in that order
+		final Map<String, FileEntry[]> files = new LinkedHashMap<>();
+		for (final FileEntry entry : entries.values()) {
+			final File file = new File(entry.path);
+			// I0025851.M01, C0025851.M01 and S0025851.M01 are one measurement
+			final String key = new File(file.getParentFile(), file.getName()
+				.substring(1).toUpperCase()).getPath();
+			final int kind = "ICS".indexOf(Character.toUpperCase(file.getName()
+				.charAt(0)));
+			files.computeIfAbsent(key, k -> new FileEntry[3])[kind] = entry;
+		}
+		files.forEach((key, parts) -> measurements.put(key, new Measurement(key,
+			parts)));
+		for (final Measurement measurement : measurements.values()) {
+			final StratecHeader header = measurement.header;
+			if (header == null) {
+				continue;
+			}
+			byPatID.computeIfAbsent(header.patID, k -> new ArrayList<>()).add(
+				measurement);
+			byPatNo.computeIfAbsent(header.patNo, k -> new ArrayList<>()).add(
+				measurement);
+			byMeasDate.computeIfAbsent(header.measDate, k -> new ArrayList<>()).add(
+				measurement);
+		}
+	}
+
+	/** The files and headers of one measurement */
+	public static class Measurement {
+
+		public final String key;
+		// The files of the measurement, null if missing
+		public final File imageFile;
+		public final File ctFile;
+		public final File scoutFile;
+		// Header of the image file, null if missing or unreadable
+		public final StratecHeader header;
+		// Site details of the CT file, null if missing or unreadable
+		public final CTHeader ctHeader;
+
+		private Measurement(final String key, final FileEntry[] parts) {
+			this.key = key;
+			imageFile = parts[0] == null ? null : new File(parts[0].path);
+			ctFile = parts[1] == null ? null : new File(parts[1].path);
+			scoutFile = parts[2] == null ? null : new File(parts[2].path);
+			header = parts[0] == null ? null : parts[0].header;
+			ctHeader = parts[1] == null ? null : parts[1].ctHeader;
+		}
+	}
+
+	private static class FileEntry {
+
+		private final String path;
+		private final long size;
+		private final long modified;
+		private final StratecHeader header;
+		private final CTHeader ctHeader;
+
+		private FileEntry(final String path, final long size, final long modified,
+			final StratecHeader header, final CTHeader ctHeader)
+		{
+			this.path = path;
+			this.size = size;
+			this.modified = modified;
+			this.header = header;
+			this.ctHeader = ctHeader;
+		}
+
+		private static FileEntry read(final File file, final long size,
+			final long modified)
+		{
+			StratecHeader header = null;
+			CTHeader ctHeader = null;
+			// A file that can't be parsed is still indexed, so that it's not
+			// re-read until it changes
+			try {
+				switch (Character.toUpperCase(file.getName().charAt(0))) {
+					case 'I':
+						header = StratecHeader.read(file);
+						break;
+					case 'C':
+						ctHeader = CTHeader.read(file);
+						break;
+				}
+			}
+			catch (final IOException | RuntimeException e) {
+				// Leave the header out
+				IJ.log("Reading the header of " + file + " failed: " + e);
+			}
+			return new FileEntry(file.getAbsolutePath(), size, modified, header,
+				ctHeader);
+		}
+
+		private static FileEntry readFrom(final DataInputStream input)
+			throws IOException
+		{
+			final String path = input.readUTF();
+			final long size = input.readLong();
+			final long modified = input.readLong();
+			final StratecHeader header = input.readBoolean() ? StratecHeader
+				.readFrom(input) : null;
+			final CTHeader ctHeader = input.readBoolean() ? new CTHeader(input
+				.readDouble(), input.readUTF()) : null;
+			return new FileEntry(path, size, modified, header, ctHeader);
+		}
+
+		private void writeTo(final DataOutputStream output) throws IOException {
+			output.writeUTF(path);
+			output.writeLong(size);
+			output.writeLong(modified);
+			output.writeBoolean(header != null);
+			if (header != null) {
+				header.writeTo(output);
+			}
+			output.writeBoolean(ctHeader != null);
+			if (ctHeader != null) {
+				output.writeDouble(ctHeader.percent);
+				output.writeUTF(ctHeader.site);
+			}
+		}
+	}
+}
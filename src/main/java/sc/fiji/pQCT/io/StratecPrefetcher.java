@@ -0,0 +1,172 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads the scans of a batch ahead of their analysis. While the caller works
+ * on one scan, the next ones are read on background threads so that the disk
+ * or network latency overlaps with the computation. At most depth scans, and
+ * maxBytes of file data, are in memory at any time. The scan returned by
+ * {@link #next()} counts until the next call, as the caller is working on it.
+ */
+public class StratecPrefetcher implements AutoCloseable {
+
+	private final List<File> files;
+	private final int depth;
+	private final long maxBytes;
+	private final Reader reader;
+	private final ExecutorService executor;
+	private final Queue<Future<StratecScan>> pending = new ArrayDeque<>();
+	private final Queue<Long> pendingBytes = new ArrayDeque<>();
+	// The bytes of the files read ahead and of the scan returned last
+	private long queuedBytes;
+	private long returnedBytes;
+	private boolean returned;
+	private int nextToRead;
+	private int nextToReturn;
+
+	/**
+	 * Creates a prefetcher with no memory bound but the depth.
+	 *
+	 * @param files the files of the batch in the order they're analysed.
+	 * @param depth the number of scans in memory, 1 to read each scan only when
+	 *          the previous one is done.
+	 */
+	public StratecPrefetcher(final List<File> files, final int depth) {
+		this(files, depth, Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param files the files of the batch in the order they're analysed.
+	 * @param depth the number of scans in memory, 1 to read each scan only when
+	 *          the previous one is done.
+	 * @param maxBytes the total size of the files in memory. A file is always
+	 *          read when nothing else is in memory, even if it's bigger.
+	 */
+	public StratecPrefetcher(final List<File> files, final int depth,
+		final long maxBytes)
+	{
+		this(files, depth, maxBytes, StratecScan::read);
+	}
+
+	StratecPrefetcher(final List<File> files, final int depth,
+		final long maxBytes, final Reader reader)
+	{
+		if (depth < 1) {
+			throw new IllegalArgumentException("Depth must be positive");
+		}
+		this.files = new ArrayList<>(files);
+		this.depth = depth;
+		this.maxBytes = maxBytes;
+		this.reader = reader;
+		executor = Executors.newFixedThreadPool(depth, runnable -> {
+			final Thread thread = new Thread(runnable, "Stratec prefetch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		fill();
+	}
+
+	public boolean hasNext() {
+		return nextToReturn < files.size();
+	}
+
+	/**
+	 * Returns the next scan, waiting if it hasn't been read yet. The scan
+	 * returned by the previous call is no longer counted in memory.
+	 *
+	 * @return the next scan of the batch.
+	 * @throws IOException if the file couldn't be read.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public StratecScan next() throws IOException, InterruptedException {
+		if (!hasNext()) {
+			throw new IllegalStateException("No more files");
+		}
+		// The caller is done with the previous scan
+		if (returned) {
+			queuedBytes -= returnedBytes;
+			returned = false;
+			fill();
+		}
+		nextToReturn++;
+		final Future<StratecScan> future = pending.remove();
+		// The scan stays counted while the caller works on it
+		returnedBytes = pendingBytes.remove();
+		returned = true;
+		fill();
+		try {
+			return future.get();
+		}
+		catch (final ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private void fill() {
+		while (nextToRead < files.size() && pending.size() + (returned ? 1
+			: 0) < depth)
+		{
+			final File file = files.get(nextToRead);
+			final long bytes = file.length();
+			if ((returned || !pending.isEmpty()) && queuedBytes + bytes > maxBytes) {
+				return;
+			}
+			pending.add(executor.submit(() -> reader.read(file)));
+			pendingBytes.add(bytes);
+			queuedBytes += bytes;
+			nextToRead++;
+		}
+	}
+
+	interface Reader {
+
+		StratecScan read(File file) throws IOException;
+	}
+}
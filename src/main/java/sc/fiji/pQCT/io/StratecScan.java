@@ -0,0 +1,138 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import javax.activation.UnsupportedDataTypeException;
+
+/**
+ * An immutable Stratec pQCT scan: the typed header and the decoded pixel
+ * data without any ImageJ objects. Use this in headless pipelines, and adapt it
+ * to an ImagePlus (see sc.fiji.pQCT.ReadStratecFile) only when a GUI needs it.
+ */
+public class StratecScan {
+
+	public final StratecHeader header;
+	// Pixels as stored in a GRAY16 ImageJ image, i.e. offset by 2^15
+	private final short[] pixels;
+	private final int min;
+	private final int max;
+
+	private StratecScan(final File file, final ByteBuffer buffer)
+		throws UnsupportedDataTypeException
+	{
+		header = new StratecHeader(file, buffer);
+		final int size = header.picMatrixX * header.picMatrixY;
+		pixels = new short[size];
+		buffer.position(StratecHeader.HEADER_LENGTH);
+		buffer.asShortBuffer().get(pixels, 0, size);
+		int minValue = Short.MAX_VALUE;
+		int maxValue = Short.MIN_VALUE;
+		for (int i = 0; i < size; i++) {
+			final int pixel = toSignedShort(pixels[i]);
+			final int unsignedShort = pixel & 0xFFFF;
+			minValue = Math.min(minValue, unsignedShort);
+			maxValue = Math.max(maxValue, unsignedShort);
+			pixels[i] = (short) pixel;
+		}
+		min = minValue;
+		max = maxValue;
+	}
+
+	/**
+	 * Reads a Stratec file (I*.M*) through a memory-mapped channel.
+	 *
+	 * @param file the file to read.
+	 * @return the header and pixels of the scan.
+	 * @throws IOException if the file can't be read or isn't a Stratec file.
+	 */
+	public static StratecScan read(final File file) throws IOException {
+		final long bytes = file.length();
+		if (bytes < StratecHeader.HEADER_LENGTH) {
+			throw new IOException("File length < " + StratecHeader.HEADER_LENGTH +
+				" bytes.");
+		}
+		// Map the file instead of copying it to the heap, the pixels are bulk
+		// transferred straight from the mapping
+		try (final FileChannel channel = FileChannel.open(file.toPath(),
+			StandardOpenOption.READ))
+		{
+			final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+				0, bytes);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			return new StratecScan(file, buffer);
+		}
+	}
+
+	/**
+	 * Returns a copy of the pixels in the unsigned 16-bit representation ImageJ
+	 * uses for signed data, i.e. the stored value + 2^15.
+	 *
+	 * @return pixels in row-major order.
+	 */
+	public short[] getPixels() {
+		return pixels.clone();
+	}
+
+	/**
+	 * Returns the pixels of {@link #getPixels()} - 2^15, i.e. the signed values
+	 * PqctAnalysis passes to ScaledImageData.
+	 *
+	 * @return signed pixel values in row-major order.
+	 */
+	public int[] getSignedPixels() {
+		final int[] signed = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++) {
+			signed[i] = (pixels[i] & 0xFFFF) - 0x8000;
+		}
+		return signed;
+	}
+
+	/** @return the smallest pixel value in the ImageJ 16-bit representation */
+	public int getMin() {
+		return min;
+	}
+
+	/** @return the largest pixel value in the ImageJ 16-bit representation */
+	public int getMax() {
+		return max;
+	}
+
+	private static int toSignedShort(final short pixel) {
+		final int bitMask = 0x8000;
+		return (pixel >= 0 ? -bitMask : bitMask - 1) + pixel;
+	}
+}
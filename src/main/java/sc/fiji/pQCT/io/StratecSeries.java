@@ -0,0 +1,226 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import ij.VirtualStack;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+
+/**
+ * A series of Stratec image files, e.g. the 4%, 14%, 38% and 66% sites of a
+ * limb, as one virtual stack. Only the headers are read up front. A slice is
+ * decoded when it's first accessed, and the most recently used slices are kept
+ * in memory.
+ */
+public class StratecSeries extends VirtualStack {
+
+	public static final int DEFAULT_CACHE_SIZE = 8;
+	private static final Pattern IMAGE_FILE = Pattern.compile(
+		"(I\\d+)\\.M(\\d+)", Pattern.CASE_INSENSITIVE);
+	private final List<StratecHeader> headers;
+	private final Map<StratecHeader, StratecScan> decoded;
+
+	/**
+	 * Creates a series of the given files.
+	 *
+	 * @param files Stratec image files (I*.M*) in slice order.
+	 * @param cacheSize the number of decoded slices kept in memory.
+	 * @throws IOException if a header can't be read, or the images differ in
+	 *           size.
+	 */
+	public StratecSeries(final List<File> files, final int cacheSize)
+		throws IOException
+	{
+		this(readHeaders(files), cacheSize);
+	}
+
+	private StratecSeries(final StratecHeader[] headers, final int cacheSize) {
+		super(headers[0].picMatrixX, headers[0].picMatrixY, null,
+			headers[0].directory);
+		this.headers = new ArrayList<>(Arrays.asList(headers));
+		decoded = new LinkedHashMap<StratecHeader, StratecScan>(16, 0.75f, true) {
+
+			@Override
+			protected boolean removeEldestEntry(
+				final Map.Entry<StratecHeader, StratecScan> eldest)
+			{
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * Opens the series the file belongs to, i.e. all the image files in its
+	 * directory with the same patient number (I0025851.M01, I0025851.M02...),
+	 * ordered by the measurement number.
+	 *
+	 * @param file an image file of the series.
+	 * @return the series.
+	 * @throws IOException if the file isn't a Stratec image file, or the series
+	 *           can't be read.
+	 */
+	public static StratecSeries open(final File file) throws IOException {
+		final Matcher matcher = IMAGE_FILE.matcher(file.getName());
+		if (!matcher.matches()) {
+			throw new IOException("Not a Stratec image file: " + file.getName());
+		}
+		final String stem = matcher.group(1);
+		final File directory = file.getAbsoluteFile().getParentFile();
+		final File[] siblings = directory.listFiles((dir, name) -> {
+			final Matcher m = IMAGE_FILE.matcher(name);
+			return m.matches() && m.group(1).equalsIgnoreCase(stem);
+		});
+		if (siblings == null) {
+			throw new IOException("Cannot list " + directory);
+		}
+		final List<File> files = new ArrayList<>();
+		Collections.addAll(files, siblings);
+		files.sort(Comparator.comparingInt(StratecSeries::measurementNumber));
+		return new StratecSeries(files, DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Returns the decoded scan of a slice, reading it if it's not in memory.
+	 *
+	 * @param n slice number, 1 &lt;= n &lt;= size.
+	 * @return the scan.
+	 * @throws IOException if the file can't be read.
+	 */
+	public StratecScan getScan(final int n) throws IOException {
+		final StratecHeader header = getHeader(n);
+		synchronized (decoded) {
+			final StratecScan scan = decoded.get(header);
+			if (scan != null) {
+				return scan;
+			}
+		}
+		// Decode outside the lock so that other slices can be served meanwhile
+		final StratecScan scan = StratecScan.read(new File(header.directory,
+			header.fileName));
+		synchronized (decoded) {
+			decoded.put(header, scan);
+		}
+		return scan;
+	}
+
+	/**
+	 * @param n slice number, 1 &lt;= n &lt;= size.
+	 * @return the header of the slice.
+	 */
+	public StratecHeader getHeader(final int n) {
+		if (n < 1 || n > headers.size()) {
+			throw new IllegalArgumentException("Argument out of range: " + n);
+		}
+		return headers.get(n - 1);
+	}
+
+	@Override
+	public ImageProcessor getProcessor(final int n) {
+		final StratecHeader header = getHeader(n);
+		short[] pixels;
+		try {
+			pixels = getScan(n).getPixels();
+		}
+		catch (final IOException e) {
+			// Show an empty slice like VirtualStack does for unreadable files
+			pixels = new short[header.picMatrixX * header.picMatrixY];
+		}
+		return new ShortProcessor(header.picMatrixX, header.picMatrixY, pixels,
+			null);
+	}
+
+	@Override
+	public int getSize() {
+		return headers.size();
+	}
+
+	// The info after the file name makes ImageInfo, and so PqctAnalysis, read
+	// the details of the current slice
+	@Override
+	public String getSliceLabel(final int n) {
+		final StratecHeader header = getHeader(n);
+		return header.fileName + "\n" + header.getInfo();
+	}
+
+	@Override
+	public void deleteSlice(final int n) {
+		final StratecHeader header = getHeader(n);
+		headers.remove(n - 1);
+		synchronized (decoded) {
+			decoded.remove(header);
+		}
+	}
+
+	@Override
+	public String getFileName(final int n) {
+		return getHeader(n).fileName;
+	}
+
+	@Override
+	public int getBitDepth() {
+		return 16;
+	}
+
+	private static StratecHeader[] readHeaders(final List<File> files)
+		throws IOException
+	{
+		if (files.isEmpty()) {
+			throw new IOException("No files in the series");
+		}
+		final StratecHeader[] headers = new StratecHeader[files.size()];
+		for (int i = 0; i < headers.length; i++) {
+			headers[i] = StratecHeader.read(files.get(i));
+			if (headers[i].picMatrixX != headers[0].picMatrixX ||
+				headers[i].picMatrixY != headers[0].picMatrixY)
+			{
+				throw new IOException("The size of " + headers[i].fileName +
+					" differs from the rest of the series");
+			}
+		}
+		return headers;
+	}
+
+	private static int measurementNumber(final File file) {
+		final Matcher matcher = IMAGE_FILE.matcher(file.getName());
+		matcher.matches();
+		return Integer.parseInt(matcher.group(2));
+	}
+}
@@ -0,0 +1,137 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Calibrations of Stratec devices parsed from their TYP files. Each file is
+ * parsed once, the first time its device is looked up, and never read again.
+ * The TYP files bundled in the typ resource directory can be complemented with
+ * files from extra directories.
+ */
+public final class TypCalibrationRegistry {
+
+	private static final TypCalibrationRegistry INSTANCE =
+		new TypCalibrationRegistry();
+	private static final String[] SEARCH_FOR = { "XInter", "XSlope" };
+	// Device (TYP file name) -> { intercept, slope }
+	private final Map<String, double[]> calibrations = new ConcurrentHashMap<>();
+
+	private TypCalibrationRegistry() {}
+
+	public static TypCalibrationRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Parses all the TYP files in the directory. They take precedence over the
+	 * bundled files of the same name.
+	 *
+	 * @param directory a directory with TYP files.
+	 * @throws IOException if a file can't be read.
+	 */
+	public void addDirectory(final File directory) throws IOException {
+		final File[] files = directory.listFiles((dir, name) -> name.toLowerCase()
+			.endsWith(".typ"));
+		if (files == null) {
+			throw new IOException("Not a directory: " + directory);
+		}
+		for (final File file : files) {
+			try (final InputStream stream = new FileInputStream(file)) {
+				calibrations.put(file.getName(), parse(stream));
+			}
+		}
+	}
+
+	/**
+	 * Returns the calibration of a device.
+	 *
+	 * @param device the device string from the Stratec header, e.g.
+	 *          XCT3010.TYP.
+	 * @return { scaling constant (intercept), scaling coefficient (slope) }, or
+	 *         null if there's no TYP file for the device.
+	 * @throws IOException if the TYP file can't be read.
+	 */
+	public double[] getCoefficients(final String device) throws IOException {
+		double[] coefficients = calibrations.get(device);
+		if (coefficients == null) {
+			final ClassLoader loader = TypCalibrationRegistry.class.getClassLoader();
+			try (final InputStream stream = loader.getResourceAsStream("typ/" +
+				device))
+			{
+				if (stream == null) {
+					return null;
+				}
+				coefficients = parse(stream);
+			}
+			final double[] previous = calibrations.putIfAbsent(device, coefficients);
+			if (previous != null) {
+				coefficients = previous;
+			}
+		}
+		return coefficients.clone();
+	}
+
+	private static double[] parse(final InputStream stream) throws IOException {
+		final double[] coefficients = new double[2];
+		final boolean[] found = new boolean[2];
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+			stream, StandardCharsets.ISO_8859_1));
+		String line;
+		while ((line = reader.readLine()) != null && !(found[0] && found[1])) {
+			for (int i = 0; i < SEARCH_FOR.length; ++i) {
+				if (found[i] || !line.contains(SEARCH_FOR[i])) {
+					continue;
+				}
+				// Use the first line that mentions the value
+				final StringTokenizer st = new StringTokenizer(line, "=");
+				st.nextToken();
+				coefficients[i] = Double.valueOf(st.nextToken().trim());
+				found[i] = true;
+			}
+		}
+		for (int i = 0; i < SEARCH_FOR.length; ++i) {
+			if (!found[i]) {
+				coefficients[i] = i * 1000.0;
+			}
+		}
+		coefficients[1] /= 1000.0;
+		return coefficients;
+	}
+}
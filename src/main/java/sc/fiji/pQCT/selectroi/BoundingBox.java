@@ -0,0 +1,77 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+/**
+ * An inclusive pixel bounding box within an image. The analyses iterate only
+ * within the box of the selected bone instead of the whole image.
+ */
+public final class BoundingBox {
+
+	public final int minX;
+	public final int minY;
+	public final int maxX;
+	public final int maxY;
+
+	public BoundingBox(final int minX, final int minY, final int maxX,
+		final int maxY)
+	{
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+
+	/** @return the box of the whole image. */
+	public static BoundingBox of(final int width, final int height) {
+		return new BoundingBox(0, 0, width - 1, height - 1);
+	}
+
+	/**
+	 * Returns a box containing the sieve filled from an edge with
+	 * {@link RoiSelector#fillSieve}. The fills start next to the edge and a fill
+	 * that leaks out only keeps its start, so the sieve is within a pixel of the
+	 * edge.
+	 *
+	 * @return the box of the edge grown by a pixel, clipped to the image.
+	 */
+	public static BoundingBox ofFill(final DetectedEdge edge, final int width,
+		final int height)
+	{
+		return new BoundingBox(Math.max(0, edge.minX - 1), Math.max(0, edge.minY -
+			1), Math.min(width - 1, edge.maxX + 1), Math.min(height - 1, edge.maxY +
+				1));
+	}
+
+	/** @return the smallest box containing both boxes. */
+	public BoundingBox union(final BoundingBox other) {
+		return new BoundingBox(Math.min(minX, other.minX), Math.min(minY,
+			other.minY), Math.max(maxX, other.maxX), Math.max(maxY, other.maxY));
+	}
+}
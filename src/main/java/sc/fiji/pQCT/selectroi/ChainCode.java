@@ -0,0 +1,85 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import java.util.Arrays;
+
+import sc.fiji.pQCT.utils.IntList;
+
+/**
+ * A traced edge stored as its first point and the Freeman chain code of the
+ * steps from there, one byte per step.
+ */
+final class ChainCode {
+
+	// 8-neighbourhood in clockwise order in image coordinates, starting east
+	static final int[] DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+	static final int[] DY = { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+	final int startX;
+	final int startY;
+	private byte[] codes = new byte[16];
+	private int steps;
+
+	ChainCode(final int startX, final int startY) {
+		this.startX = startX;
+		this.startY = startY;
+	}
+
+	/** @param direction index of the step in {@link #DX} and {@link #DY}. */
+	void add(final int direction) {
+		if (steps == codes.length) {
+			codes = Arrays.copyOf(codes, steps + (steps >> 1));
+		}
+		codes[steps++] = (byte) direction;
+	}
+
+	int direction(final int step) {
+		return codes[step];
+	}
+
+	/** @return the number of points on the edge, the first one included. */
+	int points() {
+		return steps + 1;
+	}
+
+	/** Adds the coordinates of the points on the edge to the lists. */
+	void expand(final IntList iit, final IntList jiit) {
+		int x = startX;
+		int y = startY;
+		iit.add(x);
+		jiit.add(y);
+		for (int s = 0; s < steps; s++) {
+			x += DX[codes[s]];
+			y += DY[codes[s]];
+			iit.add(x);
+			jiit.add(y);
+		}
+	}
+}
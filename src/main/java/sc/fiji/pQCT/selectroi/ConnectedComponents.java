@@ -0,0 +1,302 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import sc.fiji.pQCT.io.PixelBuffer;
+import sc.fiji.pQCT.utils.IntList;
+
+/**
+ * Labels the 8-connected components of the pixels at or above a threshold in
+ * two raster passes, with the label equivalences kept in a union-find forest.
+ * The area, bounding box and centroid of each component are gathered during
+ * the second pass. Components are numbered from 1 in the raster order of their
+ * first pixel.
+ */
+final class ConnectedComponents {
+
+	final int count;
+	private final int width;
+	private final int height;
+	// Component of each pixel, 0 for the background
+	private final int[] labels;
+	// Descriptors of component n are at index n - 1
+	private final int[] pixels;
+	private final int[] firstPixel;
+	private final int[] minX;
+	private final int[] minY;
+	private final int[] maxX;
+	private final int[] maxY;
+	private final double[] sumX;
+	private final double[] sumY;
+
+	ConnectedComponents(final PixelBuffer image, final int width,
+		final int height, final double threshold)
+	{
+		this.width = width;
+		this.height = height;
+		labels = new int[width * height];
+		// First pass, provisional labels from the west and north neighbours
+		final IntList parents = new IntList();
+		parents.add(0);
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				final int index = i + j * width;
+				if (image.get(index) < threshold) {
+					continue;
+				}
+				int label = 0;
+				if (i > 0) {
+					label = merge(parents, label, labels[index - 1]);
+				}
+				if (j > 0) {
+					final int above = index - width;
+					if (i > 0) {
+						label = merge(parents, label, labels[above - 1]);
+					}
+					label = merge(parents, label, labels[above]);
+					if (i < width - 1) {
+						label = merge(parents, label, labels[above + 1]);
+					}
+				}
+				if (label == 0) {
+					label = parents.size();
+					parents.add(label);
+				}
+				labels[index] = label;
+			}
+		}
+
+		// Second pass, final labels and descriptors
+		final int provisional = parents.size() - 1;
+		pixels = new int[provisional];
+		firstPixel = new int[provisional];
+		minX = new int[provisional];
+		minY = new int[provisional];
+		maxX = new int[provisional];
+		maxY = new int[provisional];
+		sumX = new double[provisional];
+		sumY = new double[provisional];
+		final int[] finalLabels = new int[provisional + 1];
+		int components = 0;
+		for (int j = 0; j < height; j++) {
+			for (int i = 0; i < width; i++) {
+				final int index = i + j * width;
+				if (labels[index] == 0) {
+					continue;
+				}
+				final int root = find(parents, labels[index]);
+				if (finalLabels[root] == 0) {
+					finalLabels[root] = ++components;
+					final int n = components - 1;
+					firstPixel[n] = index;
+					minX[n] = i;
+					minY[n] = j;
+					maxX[n] = i;
+					maxY[n] = j;
+				}
+				final int label = finalLabels[root];
+				final int n = label - 1;
+				labels[index] = label;
+				pixels[n]++;
+				minX[n] = Math.min(minX[n], i);
+				maxX[n] = Math.max(maxX[n], i);
+				maxY[n] = j;
+				sumX[n] += i;
+				sumY[n] += j;
+			}
+		}
+		count = components;
+	}
+
+	int firstPixel(final int label) {
+		return firstPixel[label - 1];
+	}
+
+	boolean touchesBorder(final int label) {
+		final int n = label - 1;
+		return minX[n] == 0 || minY[n] == 0 || maxX[n] == width - 1 ||
+			maxY[n] == height - 1;
+	}
+
+	/**
+	 * Traces the outer contour of a component clockwise from its first pixel,
+	 * following the 8-connected boundary pixels (Moore neighbour tracing). The
+	 * tracing stops when it would leave the first pixel in the same direction
+	 * again.
+	 */
+	ChainCode traceContour(final int label) {
+		final int start = firstPixel(label);
+		final int x0 = start % width;
+		final int y0 = start / width;
+		final ChainCode chain = new ChainCode(x0, y0);
+		// Nothing lies west or north of the first pixel, start from north west
+		final int d0 = nextDirection(label, x0, y0, 5);
+		if (d0 < 0) {
+			return chain;
+		}
+		int x = x0;
+		int y = y0;
+		int d = d0;
+		while (true) {
+			x += ChainCode.DX[d];
+			y += ChainCode.DY[d];
+			// Continue from the background pixel checked before the step
+			final int next = nextDirection(label, x, y, (d + (d % 2 == 0 ? 7 : 6)) %
+				8);
+			if (x == x0 && y == y0 && next == d0) {
+				return chain;
+			}
+			chain.add(d);
+			d = next;
+		}
+	}
+
+	/**
+	 * Marks a component and the holes within it in a mask.
+	 *
+	 * @return the number of pixels within the outer contour of the component,
+	 *         not counting the pixels on the contour, like the edge fill.
+	 */
+	int fill(final int label, final ChainCode contour, final byte[] mask) {
+		final int n = label - 1;
+		// Flood the background of the padded bounding box from its corner, what
+		// isn't reached is within the component
+		final int boxWidth = maxX[n] - minX[n] + 3;
+		final int boxHeight = maxY[n] - minY[n] + 3;
+		final boolean[] outside = new boolean[boxWidth * boxHeight];
+		final boolean[] onContour = new boolean[boxWidth * boxHeight];
+		int x = contour.startX;
+		int y = contour.startY;
+		onContour[x - minX[n] + 1 + (y - minY[n] + 1) * boxWidth] = true;
+		for (int step = 0; step < contour.points() - 1; ++step) {
+			x += ChainCode.DX[contour.direction(step)];
+			y += ChainCode.DY[contour.direction(step)];
+			onContour[x - minX[n] + 1 + (y - minY[n] + 1) * boxWidth] = true;
+		}
+		final IntList stack = new IntList();
+		stack.add(0);
+		outside[0] = true;
+		while (!stack.isEmpty()) {
+			final int box = stack.removeLast();
+			final int bx = box % boxWidth;
+			final int by = box / boxWidth;
+			if (bx > 0) {
+				visitOutside(label, box - 1, boxWidth, outside, stack);
+			}
+			if (bx < boxWidth - 1) {
+				visitOutside(label, box + 1, boxWidth, outside, stack);
+			}
+			if (by > 0) {
+				visitOutside(label, box - boxWidth, boxWidth, outside, stack);
+			}
+			if (by < boxHeight - 1) {
+				visitOutside(label, box + boxWidth, boxWidth, outside, stack);
+			}
+		}
+		int filled = 0;
+		for (int j = minY[n]; j <= maxY[n]; j++) {
+			for (int i = minX[n]; i <= maxX[n]; i++) {
+				final int box = i - minX[n] + 1 + (j - minY[n] + 1) * boxWidth;
+				if (!outside[box]) {
+					mask[i + j * width] = 1;
+					if (!onContour[box]) {
+						filled++;
+					}
+				}
+			}
+		}
+		return filled;
+	}
+
+	DetectedEdge edge(final int label, final ChainCode chain, final int area) {
+		final int n = label - 1;
+		return new DetectedEdge(chain, area, minX[n], minY[n], maxX[n], maxY[n],
+			sumX[n] / pixels[n], sumY[n] / pixels[n]);
+	}
+
+	private void visitOutside(final int label, final int box,
+		final int boxWidth, final boolean[] outside, final IntList stack)
+	{
+		if (outside[box]) {
+			return;
+		}
+		final int n = label - 1;
+		final int i = box % boxWidth + minX[n] - 1;
+		final int j = box / boxWidth + minY[n] - 1;
+		if (i >= minX[n] && i <= maxX[n] && j >= minY[n] && j <= maxY[n] &&
+			labels[i + j * width] == label)
+		{
+			return;
+		}
+		outside[box] = true;
+		stack.add(box);
+	}
+
+	private int nextDirection(final int label, final int x, final int y,
+		final int from)
+	{
+		for (int k = 0; k < 8; k++) {
+			final int d = (from + k) % 8;
+			final int i = x + ChainCode.DX[d];
+			final int j = y + ChainCode.DY[d];
+			if (i >= 0 && i < width && j >= 0 && j < height && labels[i + j *
+				width] == label)
+			{
+				return d;
+			}
+		}
+		return -1;
+	}
+
+	private static int merge(final IntList parents, final int label,
+		final int neighbour)
+	{
+		if (neighbour == 0) {
+			return label;
+		}
+		if (label == 0) {
+			return neighbour;
+		}
+		final int a = find(parents, label);
+		final int b = find(parents, neighbour);
+		if (a != b) {
+			parents.set(Math.max(a, b), Math.min(a, b));
+		}
+		return Math.min(a, b);
+	}
+
+	private static int find(final IntList parents, int label) {
+		while (parents.get(label) != label) {
+			// Path halving
+			parents.set(label, parents.get(parents.get(label)));
+			label = parents.get(label);
+		}
+		return label;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import java.util.Arrays;
+
+import sc.fiji.pQCT.utils.IntList;
+
+/**
+ * Uniform grid over the points of an edge. Each cell lists the indices of its
+ * points in the order of the edge, so that the points of a cell within a range
+ * of indices are found with a binary search.
+ */
+final class ContourGrid {
+
+	private final int minX;
+	private final int minY;
+	final int columns;
+	final int rows;
+	private final int cellSize;
+	// Points of cell c are at cellStart[c] until cellStart[c + 1]
+	private final int[] cellStart;
+	private final int[] points;
+
+	ContourGrid(final IntList x, final IntList y, final int cellSize) {
+		this.cellSize = cellSize;
+		final int n = x.size();
+		int x0 = Integer.MAX_VALUE;
+		int y0 = Integer.MAX_VALUE;
+		int x1 = Integer.MIN_VALUE;
+		int y1 = Integer.MIN_VALUE;
+		for (int i = 0; i < n; i++) {
+			x0 = Math.min(x0, x.get(i));
+			y0 = Math.min(y0, y.get(i));
+			x1 = Math.max(x1, x.get(i));
+			y1 = Math.max(y1, y.get(i));
+		}
+		minX = x0;
+		minY = y0;
+		columns = n > 0 ? (x1 - x0) / cellSize + 1 : 0;
+		rows = n > 0 ? (y1 - y0) / cellSize + 1 : 0;
+		// Counting sort of the points by cell keeps them in edge order
+		cellStart = new int[columns * rows + 1];
+		final int[] cells = new int[n];
+		for (int i = 0; i < n; i++) {
+			cells[i] = (x.get(i) - minX) / cellSize + (y.get(i) - minY) / cellSize *
+				columns;
+			cellStart[cells[i] + 1]++;
+		}
+		for (int c = 0; c < columns * rows; c++) {
+			cellStart[c + 1] += cellStart[c];
+		}
+		final int[] next = Arrays.copyOf(cellStart, cellStart.length - 1);
+		points = new int[n];
+		for (int i = 0; i < n; i++) {
+			points[next[cells[i]]++] = i;
+		}
+	}
+
+	/** @return the column of the coordinate, clamped to the grid. */
+	int column(final double x) {
+		return clamp((int) Math.floor((x - minX) / cellSize), columns);
+	}
+
+	/** @return the row of the coordinate, clamped to the grid. */
+	int row(final double y) {
+		return clamp((int) Math.floor((y - minY) / cellSize), rows);
+	}
+
+	/** @return the position of the first point of the cell at or after index. */
+	int first(final int column, final int row, final int index) {
+		final int cell = column + row * columns;
+		int low = cellStart[cell];
+		int high = cellStart[cell + 1];
+		while (low < high) {
+			final int middle = (low + high) >>> 1;
+			if (points[middle] < index) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** @return the position after the last point of the cell. */
+	int end(final int column, final int row) {
+		return cellStart[column + row * columns + 1];
+	}
+
+	/** @return the edge index of the point at the position. */
+	int point(final int position) {
+		return points[position];
+	}
+
+	private static int clamp(final int value, final int size) {
+		return Math.max(0, Math.min(size - 1, value));
+	}
+}
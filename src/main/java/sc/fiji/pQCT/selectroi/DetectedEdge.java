@@ -28,22 +28,137 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT.selectroi;
 
-import java.util.Vector;
+import sc.fiji.pQCT.utils.IntList;
 
 public class DetectedEdge implements Comparable<DetectedEdge> {
 
-	public final Vector<Integer> iit; // indices for x-coordinates
-	public final Vector<Integer> jiit; // indices for y-coordinates
 	public final int area;
 	public final int length;
+	// First point of the edge
+	public final int startX;
+	public final int startY;
+	// Bounding box of the edge
+	public final int minX;
+	public final int minY;
+	public final int maxX;
+	public final int maxY;
+	// Centroid of a labelled component, or the mean of the traced edge points
+	public final double centreX;
+	public final double centreY;
+	// Traced edges are kept as chain codes, and expanded into coordinates only
+	// when they're asked for
+	private final ChainCode chain;
+	private IntList iit; // indices for x-coordinates
+	private IntList jiit; // indices for y-coordinates
 
-	DetectedEdge(final Vector<Integer> iit, final Vector<Integer> jiit,
-		final int area)
+	DetectedEdge(final IntList iit, final IntList jiit, final int area) {
+		this(null, iit, jiit, area);
+	}
+
+	DetectedEdge(final ChainCode chain, final int area) {
+		this(chain, null, null, area);
+	}
+
+	DetectedEdge(final ChainCode chain, final int area, final int minX,
+		final int minY, final int maxX, final int maxY, final double centreX,
+		final double centreY)
 	{
+		this.chain = chain;
+		length = chain.points();
+		this.area = area;
+		startX = chain.startX;
+		startY = chain.startY;
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+		this.centreX = centreX;
+		this.centreY = centreY;
+	}
+
+	private DetectedEdge(final ChainCode chain, final IntList iit,
+		final IntList jiit, final int area)
+	{
+		this.chain = chain;
 		this.iit = iit;
 		this.jiit = jiit;
-		length = iit.size();
+		length = chain != null ? chain.points() : iit.size();
 		this.area = area;
+		int x0 = Integer.MAX_VALUE;
+		int y0 = Integer.MAX_VALUE;
+		int x1 = Integer.MIN_VALUE;
+		int y1 = Integer.MIN_VALUE;
+		double sumX = 0.0;
+		double sumY = 0.0;
+		int x = chain != null ? chain.startX : 0;
+		int y = chain != null ? chain.startY : 0;
+		for (int i = 0; i < length; i++) {
+			if (chain == null) {
+				x = iit.get(i);
+				y = jiit.get(i);
+			}
+			else if (i > 0) {
+				final int direction = chain.direction(i - 1);
+				x += ChainCode.DX[direction];
+				y += ChainCode.DY[direction];
+			}
+			x0 = Math.min(x0, x);
+			y0 = Math.min(y0, y);
+			x1 = Math.max(x1, x);
+			y1 = Math.max(y1, y);
+			sumX += x;
+			sumY += y;
+		}
+		startX = chain != null ? chain.startX : iit.get(0);
+		startY = chain != null ? chain.startY : jiit.get(0);
+		minX = x0;
+		minY = y0;
+		maxX = x1;
+		maxY = y1;
+		centreX = sumX / length;
+		centreY = sumY / length;
+	}
+
+	private DetectedEdge(final DetectedEdge edge) {
+		chain = edge.chain;
+		iit = edge.iit == null ? null : edge.iit.copy();
+		jiit = edge.jiit == null ? null : edge.jiit.copy();
+		area = edge.area;
+		length = edge.length;
+		startX = edge.startX;
+		startY = edge.startY;
+		minX = edge.minX;
+		minY = edge.minY;
+		maxX = edge.maxX;
+		maxY = edge.maxY;
+		centreX = edge.centreX;
+		centreY = edge.centreY;
+	}
+
+	// A copy with its own coordinates. The chain code isn't changed after
+	// tracing, so it's shared.
+	DetectedEdge copy() {
+		return new DetectedEdge(this);
+	}
+
+	/** @return the x-coordinates of the points on the edge. */
+	public IntList iit() {
+		expand();
+		return iit;
+	}
+
+	/** @return the y-coordinates of the points on the edge. */
+	public IntList jiit() {
+		expand();
+		return jiit;
+	}
+
+	private void expand() {
+		if (iit == null) {
+			iit = new IntList(length);
+			jiit = new IntList(length);
+			chain.expand(iit, jiit);
+		}
 	}
 
 	@Override
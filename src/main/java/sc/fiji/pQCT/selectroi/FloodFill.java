@@ -0,0 +1,148 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import java.util.function.IntPredicate;
+
+import sc.fiji.pQCT.utils.IntList;
+
+/**
+ * Scanline flood fill of 4-connected regions in a mask. Fills the background
+ * (0) pixels that pass an optional condition with 1, a row span at a time, and
+ * keeps the spans still to visit on a primitive stack. A fill that reaches the
+ * border of the image leaks: it stops right away and restores the pixels it
+ * had filled. Only the filled pixels are ever written to.
+ */
+final class FloodFill {
+
+	private final byte[] mask;
+	private final int width;
+	private final int height;
+	private final IntPredicate condition;
+	// x, y pairs of the span seeds still to fill
+	private final IntList stack = new IntList();
+	// first and last index of each filled span
+	private final IntList filled = new IntList();
+
+	/**
+	 * @param mask the mask to fill, modified in place.
+	 * @param width width of the mask.
+	 * @param height height of the mask.
+	 * @param condition extra condition for the pixels to fill, or null to fill
+	 *          every background pixel.
+	 */
+	FloodFill(final byte[] mask, final int width, final int height,
+		final IntPredicate condition)
+	{
+		this.mask = mask;
+		this.width = width;
+		this.height = height;
+		this.condition = condition;
+	}
+
+	boolean fillable(final int index) {
+		return mask[index] == 0 && (condition == null || condition.test(index));
+	}
+
+	/**
+	 * Fills the region connected to the given pixel.
+	 *
+	 * @return the number of pixels filled, or -1 if the region leaked out of the
+	 *         image, in which case the mask is left as it was.
+	 */
+	int fill(final int x, final int y) {
+		final int start = filled.size();
+		int pixels = 0;
+		stack.add(x);
+		stack.add(y);
+		while (!stack.isEmpty()) {
+			final int j = stack.removeLast();
+			final int i = stack.removeLast();
+			final int row = j * width;
+			if (!fillable(row + i)) {
+				continue;
+			}
+			int left = i;
+			while (left > 0 && fillable(row + left - 1)) {
+				left--;
+			}
+			int right = i;
+			while (right < width - 1 && fillable(row + right + 1)) {
+				right++;
+			}
+			if (j == 0 || j == height - 1 || left == 0 || right == width - 1) {
+				stack.removeRange(0, stack.size());
+				restore(start);
+				return -1;
+			}
+			for (int k = row + left; k <= row + right; k++) {
+				mask[k] = 1;
+			}
+			filled.add(row + left);
+			filled.add(row + right);
+			pixels += right - left + 1;
+			pushSpans(left, right, j - 1);
+			pushSpans(left, right, j + 1);
+		}
+		return pixels;
+	}
+
+	/** Restores every pixel filled since this fill was created. */
+	void rollback() {
+		restore(0);
+	}
+
+	// Push a seed for each run of fillable pixels on row j between left and
+	// right
+	private void pushSpans(final int left, final int right, final int j) {
+		final int row = j * width;
+		int i = left;
+		while (i <= right) {
+			if (fillable(row + i)) {
+				stack.add(i);
+				stack.add(j);
+				while (i <= right && fillable(row + i)) {
+					i++;
+				}
+			}
+			else {
+				i++;
+			}
+		}
+	}
+
+	private void restore(final int start) {
+		for (int s = filled.size() - 2; s >= start; s -= 2) {
+			for (int k = filled.get(s); k <= filled.get(s + 1); k++) {
+				mask[k] = 0;
+			}
+		}
+		filled.removeRange(start, filled.size());
+	}
+}
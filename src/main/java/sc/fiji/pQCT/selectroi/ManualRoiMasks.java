@@ -0,0 +1,264 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import ij.gui.Roi;
+import ij.gui.ShapeRoi;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+import sc.fiji.pQCT.io.ScaledImageData;
+import sc.fiji.pQCT.utils.IntList;
+
+/**
+ * Masks of manually selected ROIs, the pixels for which Roi.contains holds
+ * and the points of the ROI's polygon. A mask is rasterized once per ROI and
+ * shared by the selectors of the image. Masks of ROIs that have since been
+ * changed are rasterized again.
+ */
+public final class ManualRoiMasks {
+
+	// Number of ROIs whose masks are kept
+	private static final int CAPACITY = 4;
+	// Masks of the images still in use, by identity
+	private static final Map<ScaledImageData, ManualRoiMasks> MASKS =
+		new WeakHashMap<>();
+	// The most recently used first
+	private final LinkedList<Entry> entries = new LinkedList<>();
+
+	private ManualRoiMasks() {}
+
+	/** @return the masks of the manually selected ROIs of the image. */
+	static ManualRoiMasks of(final ScaledImageData image) {
+		synchronized (MASKS) {
+			return MASKS.computeIfAbsent(image, i -> new ManualRoiMasks());
+		}
+	}
+
+	/** @return the mask of the ROI within a width by height image. */
+	synchronized boolean[] get(final Roi roi, final int width,
+		final int height)
+	{
+		final Entry key = new Entry(roi, width, height, null);
+		final Iterator<Entry> iterator = entries.iterator();
+		while (iterator.hasNext()) {
+			final Entry entry = iterator.next();
+			if (entry.matches(key)) {
+				iterator.remove();
+				entries.addFirst(entry);
+				return entry.inside;
+			}
+		}
+		final Entry entry = new Entry(roi, width, height, rasterize(roi, width,
+			height));
+		entries.addFirst(entry);
+		if (entries.size() > CAPACITY) {
+			entries.removeLast();
+		}
+		return entry.inside;
+	}
+
+	/**
+	 * Rasterizes the ROI with its own mask, i.e. a scanline fill for polygons,
+	 * and tests the pixels on the boundary of the mask with Roi.contains. Where
+	 * contains differs, the neighbours are tested too, so that the mask comes
+	 * out as a test of every pixel with contains would have it.
+	 */
+	static boolean[] rasterize(final Roi roi, final int width,
+		final int height)
+	{
+		final boolean[] inside = new boolean[width * height];
+		final ImageProcessor mask = roi.getMask();
+		if (mask == null && roi.getType() != Roi.RECTANGLE) {
+			// No area to start from, e.g. a line, test every pixel
+			for (int j = 0; j < height; j++) {
+				for (int i = 0; i < width; i++) {
+					inside[i + j * width] = roi.contains(i, j);
+				}
+			}
+			addPolygonPoints(roi, inside, width, height);
+			return inside;
+		}
+		// Roi.contains holds only within the bounds, or a pixel beyond them for
+		// composite ROIs whose shape the bounds round down
+		final Rectangle roiBounds = roi.getBounds();
+		final Rectangle bounds = new Rectangle(roiBounds.x - 1, roiBounds.y - 1,
+			roiBounds.width + 2, roiBounds.height + 2).intersection(new Rectangle(
+				width, height));
+		if (bounds.isEmpty()) {
+			addPolygonPoints(roi, inside, width, height);
+			return inside;
+		}
+		for (int j = bounds.y; j < bounds.y + bounds.height; j++) {
+			for (int i = bounds.x; i < bounds.x + bounds.width; i++) {
+				inside[i + j * width] = roiBounds.contains(i, j) && (mask == null ||
+					mask.get(i - roiBounds.x, j - roiBounds.y) != 0);
+			}
+		}
+		// Pixels with a neighbour on the other side of the mask or outside the
+		// bounds, and the pixels along the outline, where the fill and contains
+		// can round differently
+		final IntList queue = new IntList();
+		for (int j = bounds.y; j < bounds.y + bounds.height; j++) {
+			for (int i = bounds.x; i < bounds.x + bounds.width; i++) {
+				if (onBoundary(inside, bounds, width, i, j)) {
+					queue.add(i + j * width);
+				}
+			}
+		}
+		// The outlines of the parts of a composite ROI
+		final Roi[] parts = roi instanceof ShapeRoi ? ((ShapeRoi) roi).getRois()
+			: new Roi[] { roi };
+		for (final Roi part : parts) {
+			final FloatPolygon outline = part.getFloatPolygon();
+			if (outline == null) {
+				continue;
+			}
+			for (int k = 0; k < outline.npoints; k++) {
+				final int next = (k + 1) % outline.npoints;
+				addSegment(queue, bounds, width, outline.xpoints[k],
+					outline.ypoints[k], outline.xpoints[next], outline.ypoints[next]);
+			}
+		}
+		final boolean[] tested = new boolean[width * height];
+		for (int k = 0; k < queue.size(); k++) {
+			final int index = queue.get(k);
+			if (tested[index]) {
+				continue;
+			}
+			tested[index] = true;
+			final int i = index % width;
+			final int j = index / width;
+			final boolean contains = roi.contains(i, j);
+			if (contains != inside[index]) {
+				inside[index] = contains;
+				addNeighbours(queue, bounds, width, i, j);
+			}
+		}
+		addPolygonPoints(roi, inside, width, height);
+		return inside;
+	}
+
+	private static boolean onBoundary(final boolean[] inside,
+		final Rectangle bounds, final int width, final int i, final int j)
+	{
+		for (int d = 0; d < 8; d++) {
+			final int x = i + ChainCode.DX[d];
+			final int y = j + ChainCode.DY[d];
+			if (!bounds.contains(x, y) || inside[x + y * width] != inside[i + j *
+				width])
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The pixels along the segment and their neighbours within the bounds
+	private static void addSegment(final IntList queue, final Rectangle bounds,
+		final int width, final float x0, final float y0, final float x1,
+		final float y1)
+	{
+		final int steps = (int) Math.ceil(Math.max(Math.abs(x1 - x0), Math.abs(y1 -
+			y0))) + 1;
+		for (int k = 0; k <= steps; k++) {
+			final double t = (double) k / steps;
+			addNeighbours(queue, bounds, width, (int) Math.floor(x0 + t * (x1 - x0)),
+				(int) Math.floor(y0 + t * (y1 - y0)));
+		}
+	}
+
+	// The pixel and its neighbours within the bounds
+	private static void addNeighbours(final IntList queue,
+		final Rectangle bounds, final int width, final int i, final int j)
+	{
+		for (int y = j - 1; y <= j + 1; y++) {
+			for (int x = i - 1; x <= i + 1; x++) {
+				if (bounds.contains(x, y)) {
+					queue.add(x + y * width);
+				}
+			}
+		}
+	}
+
+	// Include the points of the polygon, if one can be acquired
+	private static void addPolygonPoints(final Roi roi, final boolean[] inside,
+		final int width, final int height)
+	{
+		final Polygon polygon = roi.getPolygon();
+		if (polygon != null) {
+			for (int j = 0; j < polygon.npoints; j++) {
+				inside[polygon.xpoints[j] + polygon.ypoints[j] * width] = true;
+			}
+		}
+	}
+
+	// A ROI as it was when its mask was rasterized
+	private static final class Entry {
+
+		private final Roi roi;
+		private final int width;
+		private final int height;
+		private final int type;
+		private final Rectangle bounds;
+		private final float[] x;
+		private final float[] y;
+		private final boolean[] inside;
+
+		private Entry(final Roi roi, final int width, final int height,
+			final boolean[] inside)
+		{
+			this.roi = roi;
+			this.width = width;
+			this.height = height;
+			this.inside = inside;
+			type = roi.getType();
+			bounds = roi.getBounds();
+			final FloatPolygon polygon = roi.getFloatPolygon();
+			x = polygon != null ? Arrays.copyOf(polygon.xpoints, polygon.npoints)
+				: null;
+			y = polygon != null ? Arrays.copyOf(polygon.ypoints, polygon.npoints)
+				: null;
+		}
+
+		private boolean matches(final Entry entry) {
+			return roi == entry.roi && width == entry.width &&
+				height == entry.height && type == entry.type && bounds.equals(
+					entry.bounds) && Arrays.equals(x, entry.x) && Arrays.equals(y,
+						entry.y);
+		}
+	}
+}
@@ -0,0 +1,85 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import java.util.function.IntPredicate;
+
+import sc.fiji.pQCT.utils.IntList;
+
+/**
+ * Queue based morphology on 4-connected masks. Instead of dilating with whole
+ * image sweeps until nothing changes, the pixels reached are kept in a FIFO and
+ * only their neighbours are looked at, so every pixel is visited a constant
+ * number of times. Fixed size dilation and erosion are in
+ * {@link sc.fiji.pQCT.utils.BitMask}.
+ */
+final class Morphology {
+
+	private final int width;
+	private final int height;
+
+	Morphology(final int width, final int height) {
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Geodesic reconstruction from a seed: sets the seed and every background
+	 * (0) pixel connected to it through pixels passing the condition to 1. The
+	 * same as dilating the seed within the condition until nothing changes.
+	 *
+	 * @return the indices of the pixels set, in the order they were reached.
+	 */
+	IntList reconstruct(final byte[] mask, final int seed,
+		final IntPredicate condition)
+	{
+		final IntList queue = new IntList();
+		mask[seed] = 1;
+		queue.add(seed);
+		for (int head = 0; head < queue.size(); head++) {
+			final int index = queue.get(head);
+			final int x = index % width;
+			final int y = index / width;
+			if (y > 0) reach(mask, index - width, condition, queue);
+			if (x > 0) reach(mask, index - 1, condition, queue);
+			if (y + 1 < height) reach(mask, index + width, condition, queue);
+			if (x + 1 < width) reach(mask, index + 1, condition, queue);
+		}
+		return queue;
+	}
+
+	private static void reach(final byte[] mask, final int index,
+		final IntPredicate condition, final IntList queue)
+	{
+		if (mask[index] == 0 && condition.test(index)) {
+			mask[index] = 1;
+			queue.add(index);
+		}
+	}
+}
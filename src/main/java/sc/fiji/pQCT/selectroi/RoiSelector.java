@@ -39,14 +39,18 @@ import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 
 import ij.ImagePlus;
+import ij.gui.Roi;
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
 import sc.fiji.pQCT.io.ScaledImageData;
+import sc.fiji.pQCT.utils.BitMask;
+import sc.fiji.pQCT.utils.IntList;
 
 public abstract class RoiSelector {
 
 	public final ImageAndAnalysisDetails details;
-	public final double[] scaledImage;
-	public final double[] softScaledImage;
+	public final PixelBuffer scaledImage;
+	public final PixelBuffer softScaledImage;
 	public final double minimum;
 	public final int height;
 	public final int width;
@@ -61,22 +65,24 @@ public abstract class RoiSelector {
 	final double muscleThreshold;
 	// Thresholding soft tissues + marrow from bone
 	final double softThreshold;
-	public double[] cortexROI;
-	public Vector<Integer> boneMarrowRoiI;
-	public Vector<Integer> boneMarrowRoiJ;
+	public PixelBuffer cortexROI;
+	public IntList boneMarrowRoiI;
+	public IntList boneMarrowRoiJ;
 	// For bMD analyses
-	public Vector<Integer> cortexRoiI;
+	public IntList cortexRoiI;
 	// For bMD analyses
-	public Vector<Integer> cortexRoiJ;
+	public IntList cortexRoiJ;
 	// For area analyses
-	public Vector<Integer> cortexAreaRoiI;
+	public IntList cortexAreaRoiI;
 	// For area analyses
-	public Vector<Integer> cortexAreaRoiJ;
-	public Vector<Integer> area;
-	public Vector<Integer> length;
+	public IntList cortexAreaRoiJ;
+	public IntList area;
+	public IntList length;
 	public int selection;
 	public double pixelSpacing;
 	public byte[] sieve;
+	// Bounds of the sieve, the whole image until a bone has been selected
+	public BoundingBox sieveBox;
 	// Mask for soft tissues
 	public byte[] softSieve;
 	// Will contain filled bones
@@ -88,11 +94,14 @@ public abstract class RoiSelector {
 		scaledImageData = dataIn;
 		this.imp = imp;
 		details = detailsIn;
-		scaledImage = dataIn.scaledImage.clone();
-		softScaledImage = dataIn.softScaledImage.clone();
+		// Views instead of copies, only the selectors that mask the images pay
+		// for a copy
+		scaledImage = dataIn.scaledImage.view();
+		softScaledImage = dataIn.softScaledImage.view();
 		pixelSpacing = dataIn.pixelSpacing;
 		width = dataIn.width;
 		height = dataIn.height;
+		sieveBox = BoundingBox.of(width, height);
 		airThreshold = details.airThreshold;
 		fatThreshold = details.fatThreshold;
 		muscleThreshold = details.muscleThreshold;
@@ -105,68 +114,36 @@ public abstract class RoiSelector {
 		minimum = dataIn.minimum;
 	}
 
-	public byte[] fillSieve(final Vector<Integer> roiI,
-		final Vector<Integer> roiJ, final int width, final int height,
-		final double[] scaledImage, final double threshold)
-	{
-
-		final int[][] fourconnectedNHood = { { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0,
-			1 } };
+	// Pixels within the manually selected ROI, including the polygon points.
+	// Rasterized once per ROI and image.
+	boolean[] manualRoiMask(final Roi ijROI) {
+		return ManualRoiMasks.of(scaledImageData).get(ijROI, width, height);
+	}
 
+	public byte[] fillSieve(final IntList roiI, final IntList roiJ,
+		final int width, final int height, final PixelBuffer scaledImage,
+		final double threshold)
+	{
 		// Fill the area enclosed by the traced edge contained in roiI,roiJ
 		// beginning needs to be within the traced edge
-		byte[] sieveTemp = new byte[width * height];
-		int x;
-		int y;
+		final byte[] sieveTemp = new byte[width * height];
 		for (int z = 0; z < roiI.size(); ++z) {
 			sieveTemp[roiI.get(z) + roiJ.get(z) * width] = 1;
 		}
 
 		// Determine the flood fill init
-		int[] tempCoordinates;
+		final FloodFill floodFill = new FloodFill(sieveTemp, width, height, null);
 		while (true) {
-			tempCoordinates = findFillInit(sieveTemp, roiI, roiJ, scaledImage,
-				threshold);
+			final int[] tempCoordinates = findFillInit(sieveTemp, roiI, roiJ,
+				scaledImage, threshold);
 			if (tempCoordinates == null) {
 				return sieveTemp;
 			}
-			x = tempCoordinates[0];
-			y = tempCoordinates[1];
-
-			final Vector<Integer> initialX = new Vector<>();
-			final Vector<Integer> initialY = new Vector<>();
-			initialX.add(x);
-			initialY.add(y);
-			sieveTemp[x + y * width] = 1;
-			final byte[] sieveTemp2 = sieveTemp.clone();
-			boolean noLeak = true;
-			while (!initialX.isEmpty()) {
-
-				x = initialX.remove(initialX.size() - 1);
-				y = initialY.remove(initialY.size() - 1);
-
-				final int index = x + y * width;
-				if (sieveTemp2[index] == 0) {
-					sieveTemp2[index] = 1;
-				}
-				if (x < 1 || x >= width - 1 || y < 1 || y >= height - 1) {
-					noLeak = false;
-					break;
-				}
-				// Check 4-connected neighbours
-				for (final int[] aFourconnectedNHood : fourconnectedNHood) {
-					if (sieveTemp2[x + aFourconnectedNHood[0] + (y +
-						aFourconnectedNHood[1]) * width] == 0)
-					{
-						initialX.add(x + aFourconnectedNHood[0]);
-						initialY.add(y + aFourconnectedNHood[1]);
-					}
-
-				}
-
-			}
-			if (noLeak) {
-				sieveTemp = sieveTemp2.clone();
+			final int x = tempCoordinates[0];
+			final int y = tempCoordinates[1];
+			if (floodFill.fill(x, y) < 0) {
+				// A fill leaking out of the image only keeps its init
+				sieveTemp[x + y * width] = 1;
 			}
 		}
 	}
@@ -198,61 +175,39 @@ public abstract class RoiSelector {
 
 	// DetectedEdge
 	private double[] calcDistancesFromCentreOfLimb(final List<DetectedEdge> edges,
-		final double[] tempScaledImage, final double fatThreshold)
+		final PixelBuffer tempScaledImage, final double fatThreshold)
 	{
-		final List<double[]> bones = new ArrayList<>(edges.size());
-		for (int i = 0; i < edges.size(); ++i) {
-			bones.add(new double[3]);
-			for (int j = 0; j < 3; ++j) {
-				bones.get(i)[j] = 0;
-			}
-		}
 		// Find the centre of area of the limb
 		final int maxIndice = selectRoiBiggestBoneDetectedEdges(edges);
-		final byte[] limbSieve = new byte[tempScaledImage.length];
-		limbSieve[edges.get(maxIndice).iit.get(0) + edges.get(maxIndice).jiit.get(
-			0) * width] = 1;
-		// Dilate muscleSieve, into neighbouring fat pixels
-		int tempDil = 1;
-		while (tempDil > 0) {
-			tempDil = dilateLimb(limbSieve, (byte) 1, (byte) 0, (byte) 4,
-				fatThreshold, tempScaledImage);
-		}
+		final byte[] limbSieve = new byte[tempScaledImage.size()];
+		final DetectedEdge biggest = edges.get(maxIndice);
+		// Reconstruct the limb from the bone into the neighbouring fat pixels
+		final IntList limb = new Morphology(width, height).reconstruct(limbSieve,
+			biggest.startX + biggest.startY * width,
+			i -> tempScaledImage.get(i) >= fatThreshold);
 		double limbCenterX = 0.0;
 		double limbCenterY = 0.0;
-		double limbPoints = 0.0;
-		for (int j = 0; j < height; ++j) {
-			for (int i = 0; i < width; ++i) {
-				if (limbSieve[i + j * width] == (byte) 1) {
-					limbCenterX += i;
-					limbCenterY += j;
-					limbPoints += 1;
-				}
-			}
+		final double limbPoints = limb.size();
+		for (int p = 0; p < limb.size(); ++p) {
+			limbCenterX += limb.get(p) % width;
+			limbCenterY += limb.get(p) / width;
 		}
 		limbCenterX /= limbPoints;
 		limbCenterY /= limbPoints;
-		// Find the centres of circumference of the bones
+		// Distances to the centres of the bones
 		final double[] distanceFromCentreOfLimb = new double[edges.size()];
 		for (int i = 0; i < edges.size(); ++i) {
-			for (int j = 0; j < edges.get(i).iit.size(); j++) {
-				bones.get(i)[0] += edges.get(i).iit.get(j);
-				bones.get(i)[1] += edges.get(i).jiit.get(j);
-				bones.get(i)[2] += 1;
-			}
-			bones.get(i)[0] /= bones.get(i)[2];
-			bones.get(i)[1] /= bones.get(i)[2];
+			final DetectedEdge edge = edges.get(i);
 			// Square root omitted, as it does not affect the order...
-			distanceFromCentreOfLimb[i] = Math.pow(limbCenterX - bones.get(i)[0],
-				2.0) + Math.pow(limbCenterY - bones.get(i)[1], 2.0);
+			distanceFromCentreOfLimb[i] = Math.pow(limbCenterX - edge.centreX,
+				2.0) + Math.pow(limbCenterY - edge.centreY, 2.0);
 		}
 		return distanceFromCentreOfLimb;
 	}
 
 	// Remove the extra part from vectors and replace with a straight line
-	private Vector<Vector<Integer>> cleave(final byte[] result,
-		final Vector<Integer> fatRoiI, final Vector<Integer> fatRoiJ,
-		final int[] cleavingIndices)
+	private Vector<IntList> cleave(final byte[] result, final IntList fatRoiI,
+		final IntList fatRoiJ, final int[] cleavingIndices)
 	{
 		final int initI = fatRoiI.get(cleavingIndices[0]);
 		final int initJ = fatRoiJ.get(cleavingIndices[0]);
@@ -262,22 +217,20 @@ public abstract class RoiSelector {
 		int replacementI = fatRoiI.get(cleavingIndices[0]);
 		int replacementJ = fatRoiJ.get(cleavingIndices[0]);
 		// the elements to be cleaved
-		final List<Integer> cleavedI = new Vector<>(fatRoiI.subList(
-			cleavingIndices[0] + 1, cleavingIndices[1] + 1));
-		final List<Integer> cleavedJ = new Vector<>(fatRoiJ.subList(
-			cleavingIndices[0] + 1, cleavingIndices[1] + 1));
-		for (int i = cleavingIndices[0]; i < cleavingIndices[1]; ++i) {
-			// Remove the elements to be cleaved
-			fatRoiI.removeElementAt(cleavingIndices[0]);
-			fatRoiJ.removeElementAt(cleavingIndices[0]);
-		}
+		final IntList cleavedI = fatRoiI.copyOfRange(cleavingIndices[0] + 1,
+			cleavingIndices[1] + 1);
+		final IntList cleavedJ = fatRoiJ.copyOfRange(cleavingIndices[0] + 1,
+			cleavingIndices[1] + 1);
+		// Remove the elements to be cleaved
+		fatRoiI.removeRange(cleavingIndices[0], cleavingIndices[1]);
+		fatRoiJ.removeRange(cleavingIndices[0], cleavingIndices[1]);
 		// Insert replacement line
 		final double replacementLength = cleavingIndices[1] - cleavingIndices[0];
 		final double repILength = targetI - initI;
 		final double repJLength = targetJ - initJ;
 		double relativeLength;
-		final Vector<Integer> insertionI = new Vector<>();
-		final Vector<Integer> insertionJ = new Vector<>();
+		final IntList insertionI = new IntList();
+		final IntList insertionJ = new IntList();
 		insertionI.add(replacementI);
 		insertionJ.add(replacementJ);
 		for (int k = cleavingIndices[0]; k < cleavingIndices[1]; ++k) {
@@ -286,8 +239,8 @@ public abstract class RoiSelector {
 				replacementLength))) + initI;
 			replacementJ = ((int) (repJLength * (relativeLength /
 				replacementLength))) + initJ;
-			if (replacementI != insertionI.lastElement() || replacementJ != insertionJ
-				.lastElement())
+			if (replacementI != insertionI.last() || replacementJ != insertionJ
+				.last())
 			{
 				insertionI.add(replacementI);
 				insertionJ.add(replacementJ);
@@ -296,15 +249,13 @@ public abstract class RoiSelector {
 		}
 		fatRoiI.addAll(cleavingIndices[0], insertionI);
 		fatRoiJ.addAll(cleavingIndices[0], insertionJ);
-		Collections.reverse(insertionI);
-		Collections.reverse(insertionJ);
+		insertionI.reverse();
+		insertionJ.reverse();
 		cleavedI.addAll(0, insertionI);
 		cleavedJ.addAll(0, insertionJ);
-		final Vector<Vector<Integer>> returnVectorPair = new Vector<>();
-		returnVectorPair.add(new Vector<>());
-		returnVectorPair.add(new Vector<>());
-		returnVectorPair.get(0).addAll(cleavedI);
-		returnVectorPair.get(1).addAll(cleavedJ);
+		final Vector<IntList> returnVectorPair = new Vector<>();
+		returnVectorPair.add(cleavedI);
+		returnVectorPair.add(cleavedJ);
 		return returnVectorPair;
 	}
 
@@ -315,34 +266,16 @@ public abstract class RoiSelector {
 	line and the edge with higher indices will be removed. E.g.
 	for a circle, the maximum ratio is (pi/2)/d ~= 1.57 and for square
 	it is 2/sqrt(2) = sqrt(2) ~= 1.41.*/
-	private Vector<Vector<Vector<Integer>>> cleaveEdge(final byte[] result,
-		final Vector<Integer> fatRoiI, final Vector<Integer> fatRoiJ,
-		final double minRatio, final double minLength)
+	private Vector<Vector<IntList>> cleaveEdge(final byte[] result,
+		final IntList fatRoiI, final IntList fatRoiJ, final double minRatio,
+		final double minLength)
 	{
-		double distanceAlongTheEdge;
-		double distance;
-		double ratio;
 		final double minEdge = fatRoiI.size() / minLength;
 		final int[] cleavingIndices = new int[2];
-		final Vector<Vector<Vector<Integer>>> returnVectorVectorPointer =
-			new Vector<>();
+		final Vector<Vector<IntList>> returnVectorVectorPointer = new Vector<>();
 		while (true) {
-			double highestRatio = minRatio - 0.1;
-			/*Go through all point pairs*/
-			for (int i = 0; i < fatRoiI.size() - 11; ++i) {
-				for (int j = i + 10; j < fatRoiI.size(); ++j) {
-					distance = Math.sqrt(Math.pow(fatRoiI.get(j) - fatRoiI.get(i), 2.0) +
-						Math.pow(fatRoiJ.get(j) - fatRoiJ.get(i), 2.0));
-					distanceAlongTheEdge = Math.min((j - i), fatRoiI.size() - j + i);
-					ratio = distanceAlongTheEdge / distance;
-					if (ratio > highestRatio && distanceAlongTheEdge > minEdge) {
-						highestRatio = ratio;
-						cleavingIndices[0] = i;
-						cleavingIndices[1] = j;
-					}
-
-				}
-			}
+			final double highestRatio = highestRatioPair(fatRoiI, fatRoiJ, minRatio,
+				minEdge, cleavingIndices);
 			/*If ratio is high enough, cleave at the highest ratio point pair*/
 			if (highestRatio < minRatio) {
 				break;
@@ -351,11 +284,9 @@ public abstract class RoiSelector {
 				cleavingIndices));
 		}
 		/*Insert the last retained part to first index.*/
-		final Vector<Vector<Integer>> returnVectorPair = new Vector<>();
-		returnVectorPair.add(new Vector<>());
-		returnVectorPair.add(new Vector<>());
-		returnVectorPair.get(0).addAll(fatRoiI);
-		returnVectorPair.get(1).addAll(fatRoiJ);
+		final Vector<IntList> returnVectorPair = new Vector<>();
+		returnVectorPair.add(fatRoiI);
+		returnVectorPair.add(fatRoiJ);
 		if (returnVectorVectorPointer.size() < 1) {
 			returnVectorVectorPointer.add(returnVectorPair);
 		}
@@ -365,98 +296,123 @@ public abstract class RoiSelector {
 		return returnVectorVectorPointer;
 	}
 
-	private int dilateLimb(final byte[] data, final byte dilateVal,
-		final byte min, final byte temp, final double threshold,
-		final double[] scaledImage)
+	/*Finds the point pair at least 10 points apart with the highest ratio,
+	the first of equal ratios in the order of i, then j, and returns the ratio.
+	Only a pair of at least minRatio can be cleaved, and such a pair is no
+	further apart than half the edge divided by the ratio. The points are
+	therefore looked up in a grid, within that distance and within the indices
+	far enough along the edge. Returns less than minRatio if no pair can be
+	cleaved.*/
+	private static double highestRatioPair(final IntList fatRoiI,
+		final IntList fatRoiJ, final double minRatio, final double minEdge,
+		final int[] cleavingIndices)
 	{
-		// Dilate algorithm
-		// Best dilate by one solution taken from
-		// http://ostermiller.org/dilate_and_erode.html
-		int dilated = 0;
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				if (data[i * width + j] == dilateVal) {
-					if (i > 0 && data[(i - 1) * width + j] == min && scaledImage[(i - 1) *
-						width + j] >= threshold)
-					{
-						data[(i - 1) * width + j] = temp;
-					}
-					if (j > 0 && data[(i) * width + j - 1] == min && scaledImage[(i) *
-						width + j - 1] >= threshold)
-					{
-						data[(i) * width + j - 1] = temp;
-					}
-					if (i + 1 < height && data[(i + 1) * width + j] == min &&
-						scaledImage[(i + 1) * width + j] >= threshold)
-					{
-						data[(i + 1) * width + j] = temp;
-					}
-					if (j + 1 < width && data[(i) * width + j + 1] == min &&
-						scaledImage[(i) * width + j + 1] >= threshold)
-					{
-						data[(i) * width + j + 1] = temp;
+		final int n = fatRoiI.size();
+		double highestRatio = minRatio - 0.1;
+		int bestI = -1;
+		int bestJ = -1;
+		final double maxAlong = n / 2.0;
+		final ContourGrid grid = new ContourGrid(fatRoiI, fatRoiJ, Math.max(1,
+			(int) Math.ceil(maxAlong / minRatio / 4)));
+		// Fewest points between a pair along the edge in either direction
+		final int nearest = (int) Math.floor(minEdge) + 1;
+		for (int i = 0; i < n - 11; ++i) {
+			final int from = i + Math.max(10, nearest);
+			final int to = Math.min(n - 1, i + n - nearest);
+			if (from > to) {
+				continue;
+			}
+			final int x = fatRoiI.get(i);
+			final int y = fatRoiJ.get(i);
+			// One pixel more for rounding
+			final double radius = maxAlong / Math.max(highestRatio, minRatio) + 1;
+			final int lastColumn = grid.column(x + radius);
+			final int lastRow = grid.row(y + radius);
+			for (int row = grid.row(y - radius); row <= lastRow; row++) {
+				for (int column = grid.column(x - radius); column <= lastColumn;
+					column++)
+				{
+					final int end = grid.end(column, row);
+					for (int k = grid.first(column, row, from); k < end; k++) {
+						final int j = grid.point(k);
+						if (j > to) {
+							break;
+						}
+						final double distanceAlongTheEdge = Math.min((j - i), n - j + i);
+						final double dx = fatRoiI.get(j) - x;
+						final double dy = fatRoiJ.get(j) - y;
+						final double reach = distanceAlongTheEdge / Math.max(
+							highestRatio, minRatio) + 1;
+						if (dx * dx + dy * dy > reach * reach) {
+							continue;
+						}
+						final double distance = Math.sqrt(Math.pow(dx, 2.0) + Math.pow(dy,
+							2.0));
+						final double ratio = distanceAlongTheEdge / distance;
+						if (distanceAlongTheEdge > minEdge && (ratio > highestRatio ||
+							ratio == highestRatio && i == bestI && j < bestJ))
+						{
+							highestRatio = ratio;
+							bestI = i;
+							bestJ = j;
+						}
 					}
 				}
 			}
 		}
-		for (int i = 0; i < width * height; i++) {
-			if (data[i] == temp) {
-				// Set to proper value here...
-				data[i] = dilateVal;
-				++dilated;
-			}
+		if (bestI >= 0) {
+			cleavingIndices[0] = bestI;
+			cleavingIndices[1] = bestJ;
 		}
-		return dilated;
+		return highestRatio;
 	}
 
 	// DetectedEdge version
-	private Vector<Object> fillResultEdge(byte[] result,
-		final Vector<Integer> iit, final Vector<Integer> jiit,
-		final double[] scaledImage, final double threshold)
+	private Vector<Object> fillResultEdge(final byte[] result, final IntList iit,
+		final IntList jiit, final PixelBuffer scaledImage, final double threshold)
 	{
 		if (iit.isEmpty()) {
 			return null;
 		}
-		Vector<Object> results = null;
 		int pixelsFilled = 0;
 		// Set initial fill pixel to the first pixel above threshold not on the
 		// border
-		boolean possible = true;
-		final byte[] tempResult = result.clone();
-		int[] tempCoordinates = findFillInit(tempResult, iit, jiit, scaledImage,
+		final FloodFill floodFill = new FloodFill(result, width, height, null);
+		int[] tempCoordinates = findFillInit(result, iit, jiit, scaledImage,
 			threshold);
-		while (possible && tempCoordinates != null) {
-			final Vector<Object> returned = resultFill(tempCoordinates[0],
-				tempCoordinates[1], tempResult);
-			possible = (Boolean) returned.get(0);
-			pixelsFilled += (Integer) returned.get(1);
-			tempCoordinates = findFillInit(tempResult, iit, jiit, scaledImage,
+		while (tempCoordinates != null) {
+			final int filled = floodFill.fill(tempCoordinates[0],
+				tempCoordinates[1]);
+			if (filled < 0) {
+				// Not a closed edge, leave result as it was
+				floodFill.rollback();
+				return null;
+			}
+			pixelsFilled += filled;
+			tempCoordinates = findFillInit(result, iit, jiit, scaledImage,
 				threshold);
 		}
-		if (possible) {
-			results = new Vector<>();
-			result = tempResult;
-			results.add(result);
-			results.add(iit);
-			results.add(jiit);
-			results.add(pixelsFilled);
-		}
+		final Vector<Object> results = new Vector<>();
+		results.add(result);
+		results.add(iit);
+		results.add(jiit);
+		results.add(pixelsFilled);
 		return results;
 	}
 
 	// DetectEdge
-	private Vector<Object> findEdge(final double[] scaledImage,
+	private Vector<Object> findEdge(final PixelBuffer scaledImage,
 		final double threshold, final boolean allowCleaving)
 	{
 		int i = 0;
 		int j = 0;
 		int tempI;
 		int tempJ;
-		byte[] result = new byte[scaledImage.length];
+		byte[] result = new byte[scaledImage.size()];
 		final Collection<DetectedEdge> edges = new Vector<>();
 		while ((i < (width - 1)) && (j < (height - 1))) {
-			while (j < height - 1 && i < width && scaledImage[i + j *
-				width] < threshold)
+			while (j < height - 1 && i < width && scaledImage.get(i + j *
+				width) < threshold)
 			{
 				i++;
 				if (result[i + j * width] == 1) {
@@ -484,53 +440,41 @@ public abstract class RoiSelector {
 			result[i + j * width] = 1;
 
 			// Tracing algorithm DetectedEdge
-			final Vector<Object> returned = traceEdge(scaledImage, result, threshold,
-				i, j);
-			result = (byte[]) returned.get(0);
-			final Vector<Integer> newIit = (Vector<Integer>) returned.get(1);
-			final Vector<Integer> newJiit = (Vector<Integer>) returned.get(2);
+			final ChainCode chain = traceEdge(scaledImage, result, threshold, i, j);
+			final IntList newIit = new IntList(chain.points());
+			final IntList newJiit = new IntList(chain.points());
+			chain.expand(newIit, newJiit);
 			// Tracing algorithm done...
 
 			if (allowCleaving) {
-				final Vector<Vector<Vector<Integer>>> returnedVectors = cleaveEdge(
-					result, newIit, newJiit, 3.0, 6.0);
-				for (final Vector<Vector<Integer>> returnedVector : returnedVectors) {
+				final Vector<Vector<IntList>> returnedVectors = cleaveEdge(result,
+					newIit, newJiit, 3.0, 6.0);
+				for (final Vector<IntList> returnedVector : returnedVectors) {
 					// Fill edge within result..
-					final Vector<Integer> iit = new Vector<>();
-					final Vector<Integer> jiit = new Vector<>();
-					for (int ii = 0; ii < returnedVector.get(0).size(); ++ii) {
-						iit.add(returnedVector.get(0).get(ii));
-						jiit.add(returnedVector.get(1).get(ii));
-					}
-					final Vector<Object> results = fillResultEdge(result, iit, jiit,
-						scaledImage, threshold);
+					final Vector<Object> results = fillResultEdge(result,
+						returnedVector.get(0), returnedVector.get(1), scaledImage,
+						threshold);
 					if (results != null) {
 						result = (byte[]) results.get(0);
-						edges.add(new DetectedEdge((Vector<Integer>) results.get(1),
-							(Vector<Integer>) results.get(2), (Integer) results.get(3)));
+						edges.add(new DetectedEdge((IntList) results.get(1),
+							(IntList) results.get(2), (Integer) results.get(3)));
 					}
 				}
 			}
 			else {
 				// Fill edge within result..
-				final Vector<Integer> iit = new Vector<>();
-				final Vector<Integer> jiit = new Vector<>();
-				for (int ii = 0; ii < newIit.size(); ++ii) {
-					iit.add(newIit.get(ii));
-					jiit.add(newJiit.get(ii));
-				}
-				final Vector<Object> results = fillResultEdge(result, iit, jiit,
-					scaledImage, threshold);
+				final Vector<Object> results = fillResultEdge(result, newIit,
+					newJiit, scaledImage, threshold);
 				if (results != null) {
 					result = (byte[]) results.get(0);
-					edges.add(new DetectedEdge((Vector<Integer>) results.get(1),
-						(Vector<Integer>) results.get(2), (Integer) results.get(3)));
+					// Keep only the chain code of the edge
+					edges.add(new DetectedEdge(chain, (Integer) results.get(3)));
 				}
 			}
 			// Find next empty spot
 			i = tempI;
 			j = tempJ;
-			while (j < height && scaledImage[i + j * width] >= threshold) {
+			while (j < height && scaledImage.get(i + j * width) >= threshold) {
 				i++;
 				if (i == width) {
 					i = 0;
@@ -545,10 +489,61 @@ public abstract class RoiSelector {
 		return returnVector;
 	}
 
+	// Component labelling alternative to findEdge. Labels every component at
+	// or above the threshold at once, and traces only their outer contours.
+	// Each threshold is labelled afresh: a max-tree of the image would give the
+	// components at any threshold, but building it costs about 35 labellings
+	// and an analysis segments an image only a few times.
+	private Vector<Object> findComponents(final PixelBuffer scaledImage,
+		final double threshold, final boolean allowCleaving)
+	{
+		final ConnectedComponents components = new ConnectedComponents(
+			scaledImage, width, height, threshold);
+		final byte[] result = new byte[scaledImage.size()];
+		final Collection<DetectedEdge> edges = new Vector<>();
+		for (int label = 1; label <= components.count; ++label) {
+			// Leave out components cut by the image border, which edge tracing
+			// doesn't handle reliably, and those within an already filled bone
+			if (components.touchesBorder(label) || result[components.firstPixel(
+				label)] == 1)
+			{
+				continue;
+			}
+			final ChainCode chain = components.traceContour(label);
+			if (!allowCleaving) {
+				final int area = components.fill(label, chain, result);
+				edges.add(components.edge(label, chain, area));
+				continue;
+			}
+			// Cleaved parts aren't components, fill them as traced edges
+			final IntList iit = new IntList(chain.points());
+			final IntList jiit = new IntList(chain.points());
+			chain.expand(iit, jiit);
+			for (int i = 0; i < iit.size(); ++i) {
+				result[iit.get(i) + jiit.get(i) * width] = 1;
+			}
+			final Vector<Vector<IntList>> returnedVectors = cleaveEdge(result, iit,
+				jiit, 3.0, 6.0);
+			for (final Vector<IntList> returnedVector : returnedVectors) {
+				final Vector<Object> results = fillResultEdge(result,
+					returnedVector.get(0), returnedVector.get(1), scaledImage,
+					threshold);
+				if (results != null) {
+					edges.add(new DetectedEdge((IntList) results.get(1),
+						(IntList) results.get(2), (Integer) results.get(3)));
+				}
+			}
+		}
+
+		final Vector<Object> returnVector = new Vector<>();
+		returnVector.add(result);
+		returnVector.add(edges);
+		return returnVector;
+	}
+
 	// DetectedEdge. Find fill init by steering clockwise from next to previous
-	private int[] findFillInit(final byte[] result, final Vector<Integer> iit,
-		final Vector<Integer> jiit, final double[] scaledImage,
-		final double threshold)
+	private int[] findFillInit(final byte[] result, final IntList iit,
+		final IntList jiit, final PixelBuffer scaledImage, final double threshold)
 	{
 		final int[] returnCoordinates = new int[2];
 		final int[] steer = new int[2];
@@ -572,8 +567,8 @@ public abstract class RoiSelector {
 				}
 
 				if (result[returnCoordinates[0] + steer[0] + (returnCoordinates[1] +
-					steer[1]) * width] == 0 && scaledImage[returnCoordinates[0] +
-						steer[0] + (returnCoordinates[1] + steer[1]) * width] >= threshold)
+					steer[1]) * width] == 0 && scaledImage.get(returnCoordinates[0] +
+						steer[0] + (returnCoordinates[1] + steer[1]) * width) >= threshold)
 				{
 					returnCoordinates[0] += steer[0];
 					returnCoordinates[1] += steer[1];
@@ -612,12 +607,12 @@ public abstract class RoiSelector {
 				++counter[1];
 			}
 			if (stacked) {
-				returnValue = edges.get(counter[0]).jiit.get(0) >= edges.get(
-					counter[1]).jiit.get(0);
+				returnValue = edges.get(counter[0]).startY >= edges.get(
+					counter[1]).startY;
 			}
 			else {
-				returnValue = edges.get(counter[0]).iit.get(0) >= edges.get(
-					counter[1]).iit.get(0);
+				returnValue = edges.get(counter[0]).startX >= edges.get(
+					counter[1]).startX;
 			}
 		}
 		return returnValue;
@@ -640,64 +635,17 @@ public abstract class RoiSelector {
 		final DetectedEdge first = edges.get(considered[0]);
 		final DetectedEdge second = edges.get(considered[1]);
 		if (stacked) {
-			selectionCoord = edges.get(selection).jiit.get(0);
-			possibleCoords = new int[] { first.jiit.get(0), second.jiit.get(0) };
+			selectionCoord = edges.get(selection).startY;
+			possibleCoords = new int[] { first.startY, second.startY };
 		}
 		else {
-			selectionCoord = edges.get(selection).iit.get(0);
-			possibleCoords = new int[] { first.iit.get(0), second.iit.get(0) };
+			selectionCoord = edges.get(selection).startX;
+			possibleCoords = new int[] { first.startX, second.startX };
 		}
 		return (selection == considered[0] && selectionCoord > possibleCoords[1]) ||
 			(selection == considered[1] && selectionCoord > possibleCoords[0]);
 	}
 
-	private Vector<Object> resultFill(int i, int j, final byte[] tempResult) {
-		final Vector<Integer> initialI = new Vector<>();
-		final Vector<Integer> initialJ = new Vector<>();
-		initialI.add(i);
-		initialJ.add(j);
-		int pixelsFilled = 0;
-		while (!initialI.isEmpty() && initialI.lastElement() > 0 && initialI
-			.lastElement() < width - 1 && initialJ.lastElement() > 0 && initialJ
-				.lastElement() < height - 1)
-		{
-			i = initialI.lastElement();
-			j = initialJ.lastElement();
-			initialI.remove(initialI.size() - 1);
-			initialJ.remove(initialJ.size() - 1);
-
-			if (tempResult[i + j * width] == 0) {
-				tempResult[i + j * width] = 1;
-				++pixelsFilled;
-			}
-
-			if (tempResult[i - 1 + j * width] == 0) {
-				initialI.add(i - 1);
-				initialJ.add(j);
-			}
-
-			if (tempResult[i + 1 + j * width] == 0) {
-				initialI.add(i + 1);
-				initialJ.add(j);
-			}
-
-			if (tempResult[i + (j - 1) * width] == 0) {
-				initialI.add(i);
-				initialJ.add(j - 1);
-			}
-
-			if (tempResult[i + (j + 1) * width] == 0) {
-				initialI.add(i);
-				initialJ.add(j + 1);
-			}
-
-		}
-		final Vector<Object> returnValue = new Vector<>();
-		returnValue.add(initialI.isEmpty() && initialJ.isEmpty());
-		returnValue.add(pixelsFilled);
-		return returnValue;
-	}
-
 	// DetectedEdge
 	private static int selectRoiBiggestBoneDetectedEdges(
 		final List<DetectedEdge> edges)
@@ -715,13 +663,15 @@ public abstract class RoiSelector {
 	}
 
 	// DetectedEdge
-	private static int selectRoiBottomBone(final Collection<DetectedEdge> edges) {
-		return selectRoiFirstNthFromTop(edges, edges.size() - 1);
+	private static int selectRoiBottomBone(final Collection<DetectedEdge> edges,
+		final boolean bounds)
+	{
+		return selectRoiFirstNthFromTop(edges, edges.size() - 1, bounds);
 	}
 
 	// DetectedEdge
 	private int selectRoiCentralBone(final List<DetectedEdge> edges,
-		final double[] tempScaledImage, final double fatThreshold)
+		final PixelBuffer tempScaledImage, final double fatThreshold)
 	{
 		final double[] distanceFromCentreOfLimb = calcDistancesFromCentreOfLimb(
 			edges, tempScaledImage, fatThreshold);
@@ -735,12 +685,13 @@ public abstract class RoiSelector {
 		return counter;
 	}
 
-	// DetectedEdge , indexing from 0
+	// DetectedEdge , indexing from 0. Ranks by the first point of the edges, or
+	// by their bounding boxes.
 	private static int selectRoiFirstNthFromLeft(
-		final Collection<DetectedEdge> edges, final int nth)
+		final Collection<DetectedEdge> edges, final int nth, final boolean bounds)
 	{
-		final List<Integer> indices = edges.stream().map(e -> e.iit.get(0)).collect(
-			toList());
+		final List<Integer> indices = edges.stream().map(e -> bounds ? e.minX
+			: e.startX).collect(toList());
 		final Integer nthLeast = indices.stream().sorted().skip(nth).findFirst()
 			.orElse(-1);
 		return indices.indexOf(nthLeast);
@@ -748,10 +699,10 @@ public abstract class RoiSelector {
 
 	// DetectedEdge, indexing from 0
 	private static int selectRoiFirstNthFromTop(
-		final Collection<DetectedEdge> edges, final int nth)
+		final Collection<DetectedEdge> edges, final int nth, final boolean bounds)
 	{
-		final List<Integer> indices = edges.stream().map(e -> e.jiit.get(0))
-			.collect(toList());
+		final List<Integer> indices = edges.stream().map(e -> bounds ? e.minY
+			: e.startY).collect(toList());
 		final Integer nthLeast = indices.stream().sorted().skip(nth).findFirst()
 			.orElse(-1);
 		return indices.indexOf(nthLeast);
@@ -759,14 +710,14 @@ public abstract class RoiSelector {
 
 	// DetectedEdge
 	private static int selectRoiLeftmostBone(
-		final Collection<DetectedEdge> edges)
+		final Collection<DetectedEdge> edges, final boolean bounds)
 	{
-		return selectRoiFirstNthFromLeft(edges, 0);
+		return selectRoiFirstNthFromLeft(edges, 0, bounds);
 	}
 
 	// DetectedEdge
 	private int selectRoiPeripheralBone(final List<DetectedEdge> edges,
-		final double[] tempScaledImage, final double fatThreshold)
+		final PixelBuffer tempScaledImage, final double fatThreshold)
 	{
 		final double[] distanceFromCentreOfLimb = calcDistancesFromCentreOfLimb(
 			edges, tempScaledImage, fatThreshold);
@@ -782,9 +733,9 @@ public abstract class RoiSelector {
 
 	// DetectedEdge
 	private static int selectRoiRightmostBone(
-		final Collection<DetectedEdge> edges)
+		final Collection<DetectedEdge> edges, final boolean bounds)
 	{
-		return selectRoiFirstNthFromLeft(edges, edges.size() - 1);
+		return selectRoiFirstNthFromLeft(edges, edges.size() - 1, bounds);
 	}
 
 	// DetectedEdge
@@ -809,12 +760,16 @@ public abstract class RoiSelector {
 	}
 
 	// DetectedEdge
-	private static int selectRoiTopBone(final Collection<DetectedEdge> edges) {
-		return selectRoiFirstNthFromTop(edges, 0);
+	private static int selectRoiTopBone(final Collection<DetectedEdge> edges,
+		final boolean bounds)
+	{
+		return selectRoiFirstNthFromTop(edges, 0, bounds);
 	}
 
 	// DetectedEdge
-	private static int selectRoiTwoLargestLeft(final List<DetectedEdge> edges) {
+	private static int selectRoiTwoLargestLeft(final List<DetectedEdge> edges,
+		final boolean bounds)
+	{
 		if (edges.size() < 2) {
 			// In case only one ROI has been found..
 			return -1;
@@ -824,12 +779,14 @@ public abstract class RoiSelector {
 		for (final int twoBone : twoBones) {
 			tempEdges.add(edges.get(twoBone));
 		}
-		final int tempSelection = selectRoiLeftmostBone(tempEdges);
+		final int tempSelection = selectRoiLeftmostBone(tempEdges, bounds);
 		return twoBones[tempSelection];
 	}
 
 	// DetectedEdge
-	private static int selectRoiTwoLargestRight(final List<DetectedEdge> edges) {
+	private static int selectRoiTwoLargestRight(final List<DetectedEdge> edges,
+		final boolean bounds)
+	{
 		if (edges.size() < 2) {
 			return -1;
 		} // In case only one ROI has been found..
@@ -838,7 +795,7 @@ public abstract class RoiSelector {
 		for (final int twoBone : twoBones) {
 			tempEdges.add(edges.get(twoBone));
 		}
-		final int tempSelection = selectRoiRightmostBone(tempEdges);
+		final int tempSelection = selectRoiRightmostBone(tempEdges, bounds);
 		return twoBones[tempSelection];
 	}
 
@@ -848,99 +805,80 @@ public abstract class RoiSelector {
 	if below threshold, turn to positive direction
 	Idea taken from http://www.math.ucla.edu/~bertozzi/RTG/zhong07/report_zhong.pdf
 	The paper traced continent edges on map/satellite image
+	Directions index the steps in ChainCode, a positive turn is 45 degrees
+	clockwise.
 	*/
-	private Vector<Object> traceEdge(final double[] scaledImage,
+	private ChainCode traceEdge(final PixelBuffer scaledImage,
 		final byte[] result, final double threshold, int i, int j)
 	{
-		final Collection<Integer> iit = new Vector<>();
-		final Collection<Integer> jiit = new Vector<>();
-		iit.add(i);
-		jiit.add(j);
+		final ChainCode chain = new ChainCode(i, j);
 		// begin by advancing right. Positive angles rotate the direction clockwise.
-		double direction = 0;
-		double previousDirection;
+		int direction = 0;
 		final int initI;
 		final int initJ;
 		initI = i;
 		initJ = j;
 		while (true) {
 			int counter = 0;
-			previousDirection = direction;
 			// Handle going out of bounds by considering out of bounds to be less than
 			// threshold
-			if ((i + ((int) Math.round(Math.cos(direction)))) >= 0 && (i + ((int) Math
-				.round(Math.cos(direction))) < width) && (j + ((int) Math.round(Math
-					.sin(direction))) >= 0) && (j + ((int) Math.round(Math.sin(
-						direction))) < height) && scaledImage[i + ((int) Math.round(Math
-							.cos(direction))) + (j + ((int) Math.round(Math.sin(
-								direction)))) * width] > threshold)
-			{
+			if (valueTowards(scaledImage, i, j, direction) > threshold) {
 				// Rotate counter clockwise
-				while (counter < 8 && i + ((int) Math.round(Math.cos(direction -
-					Math.PI / 4.0))) >= 0 && i + ((int) Math.round(Math.cos(direction -
-						Math.PI / 4.0))) < width && j + ((int) Math.round(Math.sin(
-							direction - Math.PI / 4.0))) >= 0 && j + ((int) Math.round(Math
-								.sin(direction - Math.PI / 4.0))) < height && scaledImage[i +
-									((int) Math.round(Math.cos(direction - Math.PI / 4.0))) + (j +
-										((int) Math.round(Math.sin(direction - Math.PI / 4.0)))) *
-										width] > threshold)
+				while (counter < 8 && valueTowards(scaledImage, i, j, direction -
+					1) > threshold)
 				{
-					direction -= Math.PI / 4.0;
+					direction--;
 					++counter;
-					if (Math.abs(direction - previousDirection) >= 180) {
-						break;
-					}
 				}
 			}
 			else {
 				// Rotate clockwise
-				while (counter < 8 && (i + ((int) Math.round(Math.cos(
-					direction))) < 0 || i + ((int) Math.round(Math.cos(
-						direction))) >= width || j + ((int) Math.round(Math.sin(
-							direction))) < 0 || j + ((int) Math.round(Math.sin(
-								direction))) >= height || scaledImage[i + ((int) Math.round(Math
-									.cos(direction))) + (j + ((int) Math.round(Math.sin(
-										direction)))) * width] < threshold))
+				while (counter < 8 && valueTowards(scaledImage, i, j,
+					direction) < threshold)
 				{
-					direction += Math.PI / 4.0;
+					direction++;
 					++counter;
-					if (Math.abs(direction - previousDirection) >= 180) {
-						break;
-					}
 				}
-
 			}
-			i += (int) Math.round(Math.cos(direction));
-			j += (int) Math.round(Math.sin(direction));
-			if ((i == initI && j == initJ) || counter > 7 || scaledImage[i + j *
-				width] < threshold || result[i + j * width] == 1 || result[i + j *
+			i += ChainCode.DX[direction & 7];
+			j += ChainCode.DY[direction & 7];
+			if ((i == initI && j == initJ) || counter > 7 || scaledImage.get(i + j *
+				width) < threshold || result[i + j * width] == 1 || result[i + j *
 					width] > 3)
 			{
-				for (int ii = 0; ii < result.length; ++ii) {
-					if (result[ii] > 1) {
-						result[ii] = 1;
-					}
+				// Only the pixels on the edge have been marked
+				int x = initI;
+				int y = initJ;
+				for (int step = 0; step < chain.points() - 1; ++step) {
+					x += ChainCode.DX[chain.direction(step)];
+					y += ChainCode.DY[chain.direction(step)];
+					result[x + y * width] = 1;
 				}
-				final Vector<Object> returnVector = new Vector<>();
-				returnVector.add(result);
-				returnVector.add(iit);
-				returnVector.add(jiit);
-				return returnVector;
+				return chain;
 			}
-			else {
-				if (result[i + j * width] == 0) {
-					result[i + j * width] = 2;
-				}
-				else if (result[i + j * width] != 1) {
-					result[i + j * width]++;
-				}
-				iit.add(i);
-				jiit.add(j);
-
+			if (result[i + j * width] == 0) {
+				result[i + j * width] = 2;
+			}
+			else if (result[i + j * width] != 1) {
+				result[i + j * width]++;
 			}
+			chain.add(direction & 7);
 			// Keep steering counter clockwise not to miss single pixel structs...
-			direction -= Math.PI / 2.0;
+			direction -= 2;
+		}
+	}
+
+	// The value of the neighbour of (i, j) in the direction, out of bounds is
+	// below any threshold
+	private double valueTowards(final PixelBuffer scaledImage, final int i,
+		final int j, final int direction)
+	{
+		final int x = i + ChainCode.DX[direction & 7];
+		final int y = j + ChainCode.DY[direction & 7];
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return Double.NEGATIVE_INFINITY;
 		}
+		return scaledImage.get(x + y * width);
 	}
 
 	// DetectedEdge
@@ -969,48 +907,15 @@ public abstract class RoiSelector {
 		return twoLongest;
 	}
 
-	byte[] dilate(final byte[] data, final byte dilateVal, final byte min,
-		final byte temp)
-	{
-		// Dilate algorithm
-		// Best dilate by one solution taken from
-		// http://ostermiller.org/dilate_and_erode.html
-		for (int i = 0; i < height; i++) {
-			for (int j = 0; j < width; j++) {
-				if (data[i * width + j] == dilateVal) {
-					if (i > 0 && data[(i - 1) * width + j] == min) {
-						data[(i - 1) * width + j] = temp;
-					}
-					if (j > 0 && data[(i) * width + j - 1] == min) {
-						data[i * width + j - 1] = temp;
-					}
-					if (i + 1 < height && data[(i + 1) * width + j] == min) {
-						data[(i + 1) * width + j] = temp;
-					}
-					if (j + 1 < width && data[i * width + j + 1] == min) {
-						data[i * width + j + 1] = temp;
-					}
-				}
-			}
-		}
-		for (int i = 0; i < data.length; i++) {
-			if (data[i] == temp) {
-				// Set to proper value here...
-				data[i] = dilateVal;
-			}
-		}
-		return data;
-	}
-
 	/*A function to get rid of the measurement tube used at UKK-institute
 	with Stratex XCT3000 device. Needed for soft tissue analysis*/
-	byte[] removeSleeve(final double[] scaledImage,
+	BitMask removeSleeve(final PixelBuffer scaledImage,
 		final double sleeveThreshold)
 	{
 		int i = 10;
 		int j = 10;
-		while ((j < height - 12 && i < width - 11 && scaledImage[i + j *
-			width] < sleeveThreshold) || scaledImage[i + j * width] == 0)
+		while ((j < height - 12 && i < width - 11 && scaledImage.get(i + j *
+			width) < sleeveThreshold) || scaledImage.get(i + j * width) == 0)
 		{
 			i++;
 			if (i == width - 11) {
@@ -1020,99 +925,97 @@ public abstract class RoiSelector {
 			}
 		}
 		// Sleeve found
-		byte[] sleeve = new byte[width * height];
-		final Vector<Integer> initialI = new Vector<>();
-		final Vector<Integer> initialJ = new Vector<>();
+		final byte[] sleeve = new byte[width * height];
+		final FloodFill floodFill = new FloodFill(sleeve, width, height,
+			index -> scaledImage.get(index) > sleeveThreshold);
+		// Fill from the init, or from its neighbours if it's not within the
+		// sleeve
+		final int[][] nHood = { { 0, 0 }, { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0,
+			1 } };
+		for (final int[] n : nHood) {
+			if (floodFill.fill(i + n[0], j + n[1]) < 0) {
+				// A sleeve reaching the image border is only filled as far as the
+				// pixel by pixel fill gets before hitting the border
+				floodFill.rollback();
+				fillSleeveToBorder(sleeve, scaledImage, sleeveThreshold, i, j);
+				break;
+			}
+		}
+		return BitMask.of(sleeve, width, height).dilate().dilate();
+	}
+
+	// The original depth first fill of removeSleeve, which stops at the first
+	// pixel on the image border
+	private void fillSleeveToBorder(final byte[] sleeve,
+		final PixelBuffer scaledImage, final double sleeveThreshold, int i, int j)
+	{
+		final IntList initialI = new IntList();
+		final IntList initialJ = new IntList();
 		initialI.add(i);
 		initialJ.add(j);
-		while (!initialI.isEmpty() && initialI.lastElement() > 0 && initialI
-			.lastElement() < width - 1 && initialJ.lastElement() > 0 && initialJ
-				.lastElement() < height - 1)
+		while (!initialI.isEmpty() && initialI.last() > 0 && initialI.last() <
+			width - 1 && initialJ.last() > 0 && initialJ.last() < height - 1)
 		{
-			i = initialI.lastElement();
-			j = initialJ.lastElement();
-			initialI.remove(initialI.size() - 1);
-			initialJ.remove(initialJ.size() - 1);
-			if (scaledImage[i + j * width] > sleeveThreshold && sleeve[i + j *
+			i = initialI.removeLast();
+			j = initialJ.removeLast();
+			if (scaledImage.get(i + j * width) > sleeveThreshold && sleeve[i + j *
 				width] == 0)
 			{
 				sleeve[i + j * width] = 1;
 			}
-			if (scaledImage[i - 1 + j * width] > sleeveThreshold && sleeve[i - 1 + j *
-				width] == 0)
+			if (scaledImage.get(i - 1 + j * width) > sleeveThreshold && sleeve[i -
+				1 + j * width] == 0)
 			{
 				initialI.add(i - 1);
 				initialJ.add(j);
 			}
-			if (scaledImage[i + 1 + j * width] > sleeveThreshold && sleeve[i + 1 + j *
-				width] == 0)
+			if (scaledImage.get(i + 1 + j * width) > sleeveThreshold && sleeve[i +
+				1 + j * width] == 0)
 			{
 				initialI.add(i + 1);
 				initialJ.add(j);
 			}
-			if (scaledImage[i + (j - 1) * width] > sleeveThreshold && sleeve[i + (j -
-				1) * width] == 0)
+			if (scaledImage.get(i + (j - 1) * width) > sleeveThreshold && sleeve[i +
+				(j - 1) * width] == 0)
 			{
 				initialI.add(i);
 				initialJ.add(j - 1);
 			}
-			if (scaledImage[i + (j + 1) * width] > sleeveThreshold && sleeve[i + (j +
-				1) * width] == 0)
+			if (scaledImage.get(i + (j + 1) * width) > sleeveThreshold && sleeve[i +
+				(j + 1) * width] == 0)
 			{
 				initialI.add(i);
 				initialJ.add(j + 1);
 			}
 
 		}
-		sleeve = dilate(sleeve, (byte) 1, (byte) 0, (byte) 2);
-		sleeve = dilate(sleeve, (byte) 1, (byte) 0, (byte) 2);
-		return sleeve;
-	}
-
-	byte[] erode(final byte[] data) {
-		// Erode algorithm
-		// Modified from the best dilate by one solution taken from
-		// http://ostermiller.org/dilate_and_erode.html
-		for (int i = 1; i < height - 1; i++) {
-			for (int j = 1; j < width - 1; j++) {
-				if (data[i * width + j] > 0) {
-					if (data[(i - 1) * width + j] == 0 || data[i * width + j - 1] == 0 ||
-						data[(i + 1) * width + j] == 0 || data[i * width + j + 1] == 0)
-					{
-						// Erode the pixel if any of the neighborhood pixels is background
-						data[i * width + j] = -1;
-					}
-				}
-			}
-		}
-		for (int i = 0; i < data.length; i++) {
-			data[i] = (byte) Math.max(0, data[i]);
-		}
-		return data;
 	}
 
 	// DetectedEdges
-	Vector<Object> getSieve(final double[] tempScaledImage,
+	Vector<Object> getSieve(final PixelBuffer tempScaledImage,
 		final double boneThreshold, final String roiChoice,
 		final boolean guessStacked, final boolean stacked, final boolean guessFlip,
 		final boolean allowCleaving) throws ExecutionException
 	{
 		// Trace bone edges
-		final Vector<?> results = findEdge(tempScaledImage, boneThreshold,
-			allowCleaving);
+		final Vector<?> results = details.componentLabelling ? findComponents(
+			tempScaledImage, boneThreshold, allowCleaving) : findEdge(
+				tempScaledImage, boneThreshold, allowCleaving);
 		result = (byte[]) results.get(0);
 		@SuppressWarnings("unchecked")
 		final List<DetectedEdge> edges = (Vector<DetectedEdge>) results.get(1);
 		if (edges.size() < 1) {
-			final double minValue = Arrays.stream(tempScaledImage).min().orElse(0);
-			final double maxValue = Arrays.stream(tempScaledImage).max().orElse(0);
+			final double minValue = tempScaledImage.stream().min().orElse(0);
+			final double maxValue = tempScaledImage.stream().max().orElse(0);
 			throw new ExecutionException(
 				"Couldn't find a bone. The range of intensities in the file is " +
 					minValue + " to " + maxValue +
 					". Set the Thresholds between these values", new Throwable());
 		}
 
-		// Select correct bone outline
+		// Select correct bone outline. Labelled components are ranked by their
+		// bounding boxes, traced edges by their first point as before.
+		final boolean bounds = details.componentLabelling;
 		int selection = 0;
 		final int choiceIndex = Arrays.asList(details.choiceLabels).indexOf(
 			roiChoice);
@@ -1124,16 +1027,16 @@ public abstract class RoiSelector {
 				selection = selectRoiSmallestBoneDetectedEdges(edges);
 				break;
 			case 2:
-				selection = selectRoiLeftmostBone(edges);
+				selection = selectRoiLeftmostBone(edges, bounds);
 				break;
 			case 3:
-				selection = selectRoiRightmostBone(edges);
+				selection = selectRoiRightmostBone(edges, bounds);
 				break;
 			case 4:
-				selection = selectRoiTopBone(edges);
+				selection = selectRoiTopBone(edges, bounds);
 				break;
 			case 5:
-				selection = selectRoiBottomBone(edges);
+				selection = selectRoiBottomBone(edges, bounds);
 				break;
 			case 6:
 				selection = selectRoiCentralBone(edges, tempScaledImage,
@@ -1147,34 +1050,78 @@ public abstract class RoiSelector {
 				selection = selectRoiSecondLargestBoneDetectedEdges(edges);
 				break;
 			case 9:
-				selection = selectRoiTwoLargestLeft(edges);
+				selection = selectRoiTwoLargestLeft(edges, bounds);
 				break;
 			case 10:
-				selection = selectRoiTwoLargestRight(edges);
+				selection = selectRoiTwoLargestRight(edges, bounds);
 				break;
 			case 11:
 			case 12:
 			case 13:
 			case 14:
 			case 15:
-				selection = selectRoiFirstNthFromLeft(edges, choiceIndex - 11);
+				selection = selectRoiFirstNthFromLeft(edges, choiceIndex - 11,
+					bounds);
 				break;
 			case 16:
 			case 17:
 			case 18:
 			case 19:
 			case 20:
-				selection = selectRoiFirstNthFromTop(edges, choiceIndex - 16);
+				selection = selectRoiFirstNthFromTop(edges, choiceIndex - 16,
+					bounds);
 				break;
 		}
 
+		guess(edges, selection, guessStacked, stacked, guessFlip);
+		final byte[] tempSieve = fillSieve(edges.get(selection).iit(), edges.get(
+			selection).jiit(), width, height, tempScaledImage, boneThreshold);
+		final Vector<Object> returnVector = new Vector<>();
+		returnVector.add(tempSieve);
+		returnVector.add(result);
+		returnVector.add(edges);
+		returnVector.add(selection);
+		return returnVector;
+	}
+
+	// getSieve of the image with the selector's settings, reusing an earlier
+	// segmentation of the image with the same settings and manual ROI. The
+	// guesses are made again to set the details as getSieve would.
+	Vector<Object> getSieve(final PixelBuffer tempScaledImage,
+		final boolean[] inside, final double boneThreshold)
+		throws ExecutionException
+	{
+		final SegmentationCache cache = SegmentationCache.of(scaledImageData);
+		final SegmentationCache.Key key = new SegmentationCache.Key(boneThreshold,
+			details.roiChoice, details.allowCleaving, details.componentLabelling,
+			details.fatThreshold, inside);
+		final Vector<Object> cached = cache.get(key);
+		if (cached == null) {
+			final Vector<Object> masks = getSieve(tempScaledImage, boneThreshold,
+				details.roiChoice, details.guessStacked, details.stacked,
+				details.guessFlip, details.allowCleaving);
+			cache.put(key, masks);
+			return masks;
+		}
+		result = (byte[]) cached.get(1);
+		@SuppressWarnings("unchecked")
+		final List<DetectedEdge> edges = (List<DetectedEdge>) cached.get(2);
+		guess(edges, (Integer) cached.get(3), details.guessStacked,
+			details.stacked, details.guessFlip);
+		return cached;
+	}
+
+	// Guess whether the bones are stacked and whether to flip the distribution
+	private void guess(final List<DetectedEdge> edges, final int selection,
+		final boolean guessStacked, final boolean stacked, final boolean guessFlip)
+	{
 		if (guessStacked) {
 			final int[] guessingStack = twoLargestBonesDetectedEdges(edges);
 			final DetectedEdge edge = edges.get(guessingStack[0]);
 			final DetectedEdge edge2 = edges.get(guessingStack[1]);
-			final double stackedThreshold = 1.1 * Math.abs(edge.iit.get(0) - edge2.iit
+			final double stackedThreshold = 1.1 * Math.abs(edge.startX - edge2.iit()
 				.get(1));
-			details.stacked = Math.abs(edge.jiit.get(0) - edge2.jiit.get(
+			details.stacked = Math.abs(edge.startY - edge2.jiit().get(
 				1)) > stackedThreshold;
 		}
 
@@ -1192,14 +1139,5 @@ public abstract class RoiSelector {
 				details.flipDistribution = !details.flipDistribution;
 			}
 		}
-
-		final byte[] tempSieve = fillSieve(edges.get(selection).iit, edges.get(
-			selection).jiit, width, height, tempScaledImage, boneThreshold);
-		final Vector<Object> returnVector = new Vector<>();
-		returnVector.add(tempSieve);
-		returnVector.add(result);
-		returnVector.add(edges);
-		returnVector.add(selection);
-		return returnVector;
 	}
 }
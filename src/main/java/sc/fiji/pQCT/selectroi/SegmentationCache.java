@@ -0,0 +1,198 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Vector;
+import java.util.WeakHashMap;
+
+import sc.fiji.pQCT.io.ScaledImageData;
+
+/**
+ * Bone segmentations of an image, i.e. the sieve, result, edges and selection
+ * found at a threshold, by threshold, ROI choice, cleaving and manual ROI.
+ * Selectors that segment the image with the same settings again, e.g. the
+ * rotation threshold ROIs of the cortical analysis and alpha, reuse the earlier
+ * segmentation. The least recently used segmentations are dropped once the
+ * cached masks and edges exceed the memory budget. The masks and edges are
+ * copied in and out of the cache, so that changing the ones of a selected ROI
+ * doesn't change later segmentations.
+ */
+public final class SegmentationCache {
+
+	// Memory for the bone segmentations kept per image
+	private static final long BUDGET = 32L << 20;
+	// Caches of the images still in use. ScaledImageData doesn't override
+	// equals, so the images are told apart by identity.
+	private static final Map<ScaledImageData, SegmentationCache> CACHES =
+		new WeakHashMap<>();
+	private final long budget;
+	private final LinkedHashMap<Key, Vector<Object>> segmentations =
+		new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes;
+	private long hits;
+	private long misses;
+
+	/** @param budget bytes of masks and edges to keep at most. */
+	private SegmentationCache(final long budget) {
+		this.budget = budget;
+	}
+
+	/** @return the segmentations of the image. */
+	public static SegmentationCache of(final ScaledImageData image) {
+		synchronized (CACHES) {
+			return CACHES.computeIfAbsent(image, i -> new SegmentationCache(BUDGET));
+		}
+	}
+
+	/** @return number of segmentations served from the cache. */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/** @return number of segmentations that had to be computed. */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/** @return the segmentation, or null if it isn't cached. */
+	synchronized Vector<Object> get(final Key key) {
+		final Vector<Object> segmentation = segmentations.get(key);
+		if (segmentation == null) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return copy(segmentation);
+	}
+
+	synchronized void put(final Key key, final Vector<Object> segmentation) {
+		final long size = bytes(key, segmentation);
+		if (size > budget) {
+			return;
+		}
+		final Vector<Object> replaced = segmentations.put(key, copy(
+			segmentation));
+		if (replaced != null) {
+			bytes -= bytes(key, replaced);
+		}
+		bytes += size;
+		// Evict the least recently used
+		final Iterator<Map.Entry<Key, Vector<Object>>> iterator = segmentations
+			.entrySet().iterator();
+		while (bytes > budget) {
+			final Map.Entry<Key, Vector<Object>> eldest = iterator.next();
+			bytes -= bytes(eldest.getKey(), eldest.getValue());
+			iterator.remove();
+		}
+	}
+
+	// Copies the sieve, result and edges of the segmentation
+	private static Vector<Object> copy(final Vector<Object> segmentation) {
+		@SuppressWarnings("unchecked")
+		final List<DetectedEdge> edges = (List<DetectedEdge>) segmentation.get(2);
+		final Vector<DetectedEdge> edgesCopy = new Vector<>(edges.size());
+		for (final DetectedEdge edge : edges) {
+			edgesCopy.add(edge.copy());
+		}
+		final Vector<Object> copy = new Vector<>(segmentation);
+		copy.set(0, ((byte[]) segmentation.get(0)).clone());
+		copy.set(1, ((byte[]) segmentation.get(1)).clone());
+		copy.set(2, edgesCopy);
+		return copy;
+	}
+
+	// Approximate memory held by the segmentation, its masks and the
+	// coordinates of its edges
+	private static long bytes(final Key key, final Vector<Object> segmentation) {
+		long size = ((byte[]) segmentation.get(0)).length + ((byte[]) segmentation
+			.get(1)).length;
+		if (key.inside != null) {
+			size += key.inside.length;
+		}
+		@SuppressWarnings("unchecked")
+		final List<DetectedEdge> edges = (List<DetectedEdge>) segmentation.get(2);
+		for (final DetectedEdge edge : edges) {
+			size += 8L * edge.length;
+		}
+		return size;
+	}
+
+	/** Settings that determine a segmentation of the image. */
+	static final class Key {
+
+		private final double threshold;
+		private final String roiChoice;
+		private final boolean allowCleaving;
+		private final boolean componentLabelling;
+		// Central and peripheral choices look at the fat around the bones
+		private final double fatThreshold;
+		// Pixels within the manual ROI, null without one
+		private final boolean[] inside;
+		private final int insideHash;
+
+		Key(final double threshold, final String roiChoice,
+			final boolean allowCleaving, final boolean componentLabelling,
+			final double fatThreshold, final boolean[] inside)
+		{
+			this.threshold = threshold;
+			this.roiChoice = roiChoice;
+			this.allowCleaving = allowCleaving;
+			this.componentLabelling = componentLabelling;
+			this.fatThreshold = fatThreshold;
+			this.inside = inside;
+			insideHash = Arrays.hashCode(inside);
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			final Key key = (Key) o;
+			// Masks with different hashes needn't be compared
+			return Double.compare(threshold, key.threshold) == 0 && Objects.equals(
+				roiChoice, key.roiChoice) && allowCleaving == key.allowCleaving &&
+				componentLabelling == key.componentLabelling && Double.compare(
+					fatThreshold, key.fatThreshold) == 0 &&
+				insideHash == key.insideHash && Arrays.equals(inside, key.inside);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(threshold, roiChoice, allowCleaving,
+				componentLabelling, fatThreshold, insideHash);
+		}
+	}
+}
@@ -28,7 +28,6 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT.selectroi;
 
-import java.awt.Polygon;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
 
@@ -37,7 +36,9 @@ import ij.ImagePlus;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
 import sc.fiji.pQCT.io.ScaledImageData;
+import sc.fiji.pQCT.utils.IntList;
 
 public class SelectROI extends RoiSelector {
 
@@ -49,50 +50,34 @@ public class SelectROI extends RoiSelector {
 	{
 		super(dataIn, detailsIn, imp);
 		// Select ROI and set everything else than the roi to minimum
-		cortexROI = new double[width * height];
-		cortexRoiI = new Vector<>();
-		cortexRoiJ = new Vector<>();
-		cortexAreaRoiI = new Vector<>();
-		cortexAreaRoiJ = new Vector<>();
-		boneMarrowRoiI = new Vector<>();
-		boneMarrowRoiJ = new Vector<>();
+		cortexROI = scaledImage.create();
+		cortexRoiI = new IntList();
+		cortexRoiJ = new IntList();
+		cortexAreaRoiI = new IntList();
+		cortexAreaRoiJ = new IntList();
+		boneMarrowRoiI = new IntList();
+		boneMarrowRoiJ = new IntList();
 		Roi ijROI = imp.getRoi();
-		final double[] tempScaledImage = scaledImage.clone();
+		PixelBuffer tempScaledImage = scaledImage;
+		boolean[] inside = null;
 		if (ijROI != null && details.manualRoi) {
-			// Set pixels outside the manually selected ROI to zero
-			for (int j = 0; j < height; j++) {
-				for (int i = 0; i < width; i++) {
-					if (!ijROI.contains(i, j)) {
-						// Check whether pixel is within ROI, mark with bone threshold
-						tempScaledImage[i + j * width] = minimum;
-					}
-				}
-			}
-			final Polygon polygon = ijROI.getPolygon();
-			if (polygon != null) {
-				// Check whether a polygon can be acquired and include its points
-				for (int j = 0; j < polygon.npoints; j++) {
-					final int index = polygon.xpoints[j] + polygon.ypoints[j] * width;
-					tempScaledImage[index] = scaledImage[index];
-				}
-			}
+			// Read pixels outside the manually selected ROI as minimum
+			final boolean[] roiMask = manualRoiMask(ijROI);
+			tempScaledImage = scaledImage.masked(i -> roiMask[i], minimum);
+			inside = roiMask;
 		}
-		final Vector<Object> boneMasks = getSieve(tempScaledImage, boneThreshold,
-			details.roiChoice, details.guessStacked, details.stacked,
-			details.guessFlip, details.allowCleaving);
+		final Vector<Object> boneMasks = getSieve(tempScaledImage, inside,
+			boneThreshold);
 		sieve = (byte[]) boneMasks.get(0);
 		result = (byte[]) boneMasks.get(1);
 		final Vector<DetectedEdge> boneEdges = (Vector<DetectedEdge>) boneMasks.get(
 			2);
 		selection = (Integer) boneMasks.get(3);
+		sieveBox = BoundingBox.ofFill(boneEdges.get(selection), width, height);
 		// Add the roi to the image
 		if (setRoi) {
-			final int[] xcoordinates = new int[boneEdges.get(selection).iit.size()];
-			final int[] ycoordinates = new int[boneEdges.get(selection).iit.size()];
-			for (int i = 0; i < boneEdges.get(selection).iit.size(); ++i) {
-				xcoordinates[i] = boneEdges.get(selection).iit.get(i);
-				ycoordinates[i] = boneEdges.get(selection).jiit.get(i);
-			}
+			final int[] xcoordinates = boneEdges.get(selection).iit().toArray();
+			final int[] ycoordinates = boneEdges.get(selection).jiit().toArray();
 			// Flip the original image prior to adding the ROI, if scaled image is
 			// flipped
 			if ((details.flipHorizontal || details.flipVertical) && imp
@@ -110,29 +95,27 @@ public class SelectROI extends RoiSelector {
 				imp.updateAndDraw();
 			}
 			ijROI = new PolygonRoi(xcoordinates, ycoordinates, boneEdges.get(
-				selection).iit.size(), Roi.POLYGON);
+				selection).length, Roi.POLYGON);
 			imp.setRoi(ijROI);
 		}
 
-		for (int j = 0; j < height; j++) {
-			for (int i = 0; i < width; i++) {
+		cortexROI.fill(minimum);
+		for (int j = sieveBox.minY; j <= sieveBox.maxY; j++) {
+			for (int i = sieveBox.minX; i <= sieveBox.maxX; i++) {
 				final int index = i + j * width;
-				if (scaledImage[index] < areaThreshold & sieve[index] > 0) {
+				if (scaledImage.get(index) < areaThreshold & sieve[index] > 0) {
 					boneMarrowRoiI.add(i);
 					boneMarrowRoiJ.add(j);
 				}
-				if (scaledImage[index] >= areaThreshold & sieve[index] > 0) {
+				if (scaledImage.get(index) >= areaThreshold & sieve[index] > 0) {
 					cortexAreaRoiI.add(i);
 					cortexAreaRoiJ.add(j);
 				}
-				if (scaledImage[index] >= BMDthreshold & sieve[index] > 0) {
-					cortexROI[index] = scaledImage[index];
+				if (scaledImage.get(index) >= BMDthreshold & sieve[index] > 0) {
+					cortexROI.set(index, scaledImage.get(index));
 					cortexRoiI.add(i);
 					cortexRoiJ.add(j);
 				}
-				else {
-					cortexROI[index] = minimum;
-				}
 			}
 		}
 		edges = boneEdges;
@@ -28,17 +28,17 @@ OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
 
 package sc.fiji.pQCT.selectroi;
 
-import java.awt.Polygon;
 import java.util.Collections;
 import java.util.List;
 import java.util.Vector;
 import java.util.concurrent.ExecutionException;
-import java.util.stream.IntStream;
 
 import ij.ImagePlus;
 import ij.gui.Roi;
 import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
 import sc.fiji.pQCT.io.ScaledImageData;
+import sc.fiji.pQCT.utils.BitMask;
 
 public class SelectSoftROI extends RoiSelector {
 
@@ -54,35 +54,20 @@ public class SelectSoftROI extends RoiSelector {
 		softSieve = null;
 		if (details.stOn) {
 			// Get rid of measurement tube used at the UKK institute
-			final byte[] sleeve;
 			if (details.sleeveOn) {
-				sleeve = removeSleeve(softScaledImage, 25.0);
-				final int size = width * height;
-				IntStream.range(0, size).filter(i -> sleeve[i] == 1).forEach(
-					i -> softScaledImage[i] = minimum);
+				final BitMask sleeve = removeSleeve(softScaledImage, 25.0);
+				sleeve.forEach(i -> softScaledImage.set(i, minimum));
 			}
 
 			// Ignore data outside manually selected ROI, if manualRoi has been
 			// selected
 			final Roi ijROI = imp.getRoi();
 			if (ijROI != null && details.manualRoi) {
-				// Set pixels outside the manually selected ROI to zero
-				final double[] tempScaledImage = softScaledImage.clone();
-				// Check whether pixel is within ROI, mark with bone threshold
-				for (int j = 0; j < height; j++) {
-					for (int i = 0; i < width; i++) {
-						if (!ijROI.contains(i, j)) {
-							softScaledImage[i + j * width] = minimum;
-						}
-					}
-				}
-				// Check whether a polygon can be acquired and include polygon points
-				// too
-				final Polygon polygon = ijROI.getPolygon();
-				if (polygon != null) {
-					for (int j = 0; j < polygon.npoints; j++) {
-						final int index = polygon.xpoints[j] + polygon.ypoints[j] * width;
-						softScaledImage[index] = tempScaledImage[index];
+				// Set pixels outside the manually selected ROI to minimum
+				final boolean[] inside = manualRoiMask(ijROI);
+				for (int i = 0; i < inside.length; i++) {
+					if (!inside[i]) {
+						softScaledImage.set(i, minimum);
 					}
 				}
 			}
@@ -94,22 +79,16 @@ public class SelectSoftROI extends RoiSelector {
 
 			// Erode three layers of pixels from the fat sieve to get rid of higher
 			// density layer (i.e. skin) on top of fat to enable finding muscle border
-			byte[] muscleSieve = softSieve.clone();
-			final double[] muscleImage = softScaledImage.clone();
+			final BitMask limbSieve = BitMask.of(softSieve, width, height);
 
 			// Remove skin by eroding three layers of pixels
-			for (int i = 0; i < 3; ++i) {
-				muscleSieve = erode(muscleSieve);
-			}
+			limbSieve.erode().erode().erode();
 			// The three layers of skin removed
-			final byte[] subCutaneousFat = muscleSieve.clone();
+			final BitMask subCutaneousFat = limbSieve.copy();
 
 			// Remove everything other than the selected limb from the image
-			for (int i = 0; i < muscleSieve.length; ++i) {
-				if (muscleSieve[i] < 1) {
-					muscleImage[i] = minimum;
-				}
-			}
+			final PixelBuffer muscleImage = softScaledImage.masked(limbSieve::get,
+				minimum);
 			// Look for muscle outline
 			final Vector<Object> muscleMasks = getSieve(muscleImage,
 				details.muscleThreshold, "Bigger", details.guessStacked,
@@ -118,35 +97,26 @@ public class SelectSoftROI extends RoiSelector {
 				.get(2);
 			muscleEdges.sort(Collections.reverseOrder());
 			int tempMuscleArea = 0;
-			muscleSieve = new byte[softSieve.length];
+			final BitMask muscleSieve = new BitMask(width, height);
 			int areaToAdd = 0;
 			// Include areas that contribute more than 1.0% on top of what is already
 			// included
 			while (areaToAdd < muscleEdges.size() && tempMuscleArea *
 				0.01 < muscleEdges.get(areaToAdd).area)
 			{
-				final byte[] tempMuscleSieve = fillSieve(muscleEdges.get(areaToAdd).iit,
-					muscleEdges.get(areaToAdd).jiit, width, height, muscleImage,
-					details.muscleThreshold);
-				for (int i = 0; i < tempMuscleSieve.length; ++i) {
-					if (tempMuscleSieve[i] > 0) {
-						muscleSieve[i] = tempMuscleSieve[i];
-					}
-				}
+				final DetectedEdge muscleEdge = muscleEdges.get(areaToAdd);
+				final byte[] tempMuscleSieve = fillSieve(muscleEdge.iit(), muscleEdge
+					.jiit(), width, height, muscleImage, details.muscleThreshold);
+				muscleSieve.or(BitMask.of(tempMuscleSieve, width, height));
 				tempMuscleArea += muscleEdges.get(areaToAdd).area;
 				areaToAdd++;
 			}
 
 			// Dilate the sieve to include all muscle pixels
-			byte[] tempMuscleSieve = muscleSieve.clone();
-			tempMuscleSieve = dilate(tempMuscleSieve, (byte) 1, (byte) 0, (byte) 2);
+			final BitMask tempMuscleSieve = muscleSieve.copy().dilate();
 
 			eroded = new byte[softSieve.length];
-			for (int i = 0; i < tempMuscleSieve.length; ++i) {
-				if (tempMuscleSieve[i] == 1) {
-					subCutaneousFat[i] = 0;
-				}
-			}
+			subCutaneousFat.andNot(tempMuscleSieve);
 
 			// create temp boneResult to wipe out bone and marrow
 			final Vector<Object> masks2 = getSieve(softScaledImage, softThreshold,
@@ -155,32 +125,32 @@ public class SelectSoftROI extends RoiSelector {
 			final byte[] boneResult = (byte[]) masks2.get(1);
 
 			for (int i = 0; i < softSieve.length; ++i) {
-				if (softSieve[i] == 1 && softScaledImage[i] >= airThreshold &&
-					softScaledImage[i] < fatThreshold)
+				if (softSieve[i] == 1 && softScaledImage.get(i) >= airThreshold &&
+					softScaledImage.get(i) < fatThreshold)
 				{
 					// Fat
 					softSieve[i] = 2;
 				}
-				if (muscleSieve[i] == 1 && boneResult[i] == 0) {
-					if (softScaledImage[i] >= muscleThreshold &&
-						softScaledImage[i] < softThreshold)
+				if (muscleSieve.get(i) && boneResult[i] == 0) {
+					if (softScaledImage.get(i) >= muscleThreshold &&
+						softScaledImage.get(i) < softThreshold)
 					{
 						// Muscle
 						softSieve[i] = 3;
 					}
-					if (softScaledImage[i] >= airThreshold &&
-						softScaledImage[i] < muscleThreshold)
+					if (softScaledImage.get(i) >= airThreshold &&
+						softScaledImage.get(i) < muscleThreshold)
 					{
 						// Intra/Intermuscular fat
 						softSieve[i] = 4;
 					}
 				}
-				if (subCutaneousFat[i] == 1) {
+				if (subCutaneousFat.get(i)) {
 					// Subcut fat
 					softSieve[i] = 5;
 				}
 				if (boneResult[i] == 1) {
-					if (softScaledImage[i] >= fatThreshold) {
+					if (softScaledImage.get(i) >= fatThreshold) {
 						// Bone & marrow
 						softSieve[i] = 6;
 					}
@@ -189,8 +159,8 @@ public class SelectSoftROI extends RoiSelector {
 						softSieve[i] = 7;
 					}
 				}
-				if (softSieve[i] > 0 && subCutaneousFat[i] == 0 &&
-					tempMuscleSieve[i] == 0)
+				if (softSieve[i] > 0 && !subCutaneousFat.get(i) && !tempMuscleSieve
+					.get(i))
 				{
 					// Skin eroded pixels
 					eroded[i] = 1;
@@ -0,0 +1,207 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.utils;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A binary image mask packed one pixel per bit. Each row starts on a new long,
+ * so the 4-neighbour morphology works a word (64 pixels) at a time: vertical
+ * neighbours are the same word on the adjacent rows, and horizontal ones are a
+ * shift by one with the carry from the next word. Pixels are indexed like the
+ * byte sieves, x + y * width.
+ */
+public final class BitMask {
+
+	public final int width;
+	public final int height;
+	// longs per row
+	private final int stride;
+	// the valid bits of the last word on a row
+	private final long lastWordMask;
+	private long[] words;
+
+	public BitMask(final int width, final int height) {
+		this.width = width;
+		this.height = height;
+		stride = (width + 63) >>> 6;
+		lastWordMask = -1L >>> (stride * 64 - width);
+		words = new long[stride * height];
+	}
+
+	/** @return a mask of the pixels greater than 0 in the sieve. */
+	public static BitMask of(final byte[] sieve, final int width,
+		final int height)
+	{
+		final BitMask mask = new BitMask(width, height);
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			for (int x = 0; x < width; x++) {
+				if (sieve[row + x] > 0) {
+					mask.words[y * mask.stride + (x >>> 6)] |= 1L << x;
+				}
+			}
+		}
+		return mask;
+	}
+
+	public boolean get(final int index) {
+		final int x = index % width;
+		return (words[index / width * stride + (x >>> 6)] & 1L << x) != 0;
+	}
+
+	public void set(final int index) {
+		final int x = index % width;
+		words[index / width * stride + (x >>> 6)] |= 1L << x;
+	}
+
+	public void clear(final int index) {
+		final int x = index % width;
+		words[index / width * stride + (x >>> 6)] &= ~(1L << x);
+	}
+
+	public BitMask copy() {
+		final BitMask copy = new BitMask(width, height);
+		copy.words = words.clone();
+		return copy;
+	}
+
+	/**
+	 * Adds the 4-neighbours of every set pixel within the image.
+	 *
+	 * @return this mask.
+	 */
+	public BitMask dilate() {
+		final long[] dilated = new long[words.length];
+		for (int y = 0; y < height; y++) {
+			for (int k = 0; k < stride; k++) {
+				final int w = y * stride + k;
+				long word = words[w] | fromLeft(w, k) | fromRight(w, k);
+				if (y > 0) {
+					word |= words[w - stride];
+				}
+				if (y < height - 1) {
+					word |= words[w + stride];
+				}
+				dilated[w] = k == stride - 1 ? word & lastWordMask : word;
+			}
+		}
+		words = dilated;
+		return this;
+	}
+
+	/**
+	 * Clears the set pixels with a cleared 4-neighbour. Pixels on the border of
+	 * the image are never cleared.
+	 *
+	 * @return this mask.
+	 */
+	public BitMask erode() {
+		final long[] eroded = words.clone();
+		for (int y = 1; y < height - 1; y++) {
+			for (int k = 0; k < stride; k++) {
+				final int w = y * stride + k;
+				long border = 0;
+				if (k == 0) {
+					border |= 1L;
+				}
+				if (k == stride - 1) {
+					border |= 1L << (width - 1);
+				}
+				final long word = words[w];
+				eroded[w] = word & (fromLeft(w, k) & fromRight(w, k) &
+					words[w - stride] & words[w + stride] | border);
+			}
+		}
+		words = eroded;
+		return this;
+	}
+
+	/** @return this mask, keeping the pixels also set in the other mask. */
+	public BitMask and(final BitMask other) {
+		for (int w = 0; w < words.length; w++) {
+			words[w] &= other.words[w];
+		}
+		return this;
+	}
+
+	/** @return this mask, adding the pixels set in the other mask. */
+	public BitMask or(final BitMask other) {
+		for (int w = 0; w < words.length; w++) {
+			words[w] |= other.words[w];
+		}
+		return this;
+	}
+
+	/** @return this mask, clearing the pixels set in the other mask. */
+	public BitMask andNot(final BitMask other) {
+		for (int w = 0; w < words.length; w++) {
+			words[w] &= ~other.words[w];
+		}
+		return this;
+	}
+
+	/** @return the number of set pixels. */
+	public int cardinality() {
+		int count = 0;
+		for (final long word : words) {
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/** Calls the action with the index of each set pixel, in ascending order. */
+	public void forEach(final IntConsumer action) {
+		for (int w = 0; w < words.length; w++) {
+			final int offset = w / stride * width + (w % stride << 6);
+			for (long word = words[w]; word != 0; word &= word - 1) {
+				action.accept(offset + Long.numberOfTrailingZeros(word));
+			}
+		}
+	}
+
+	/** @return the mask as a sieve, 1 for the set pixels and 0 elsewhere. */
+	public byte[] toSieve() {
+		final byte[] sieve = new byte[width * height];
+		forEach(i -> sieve[i] = 1);
+		return sieve;
+	}
+
+	// Word w at k on its row with each bit set if the pixel on its left is
+	private long fromLeft(final int w, final int k) {
+		final long carry = k > 0 ? words[w - 1] >>> 63 : 0;
+		return words[w] << 1 | carry;
+	}
+
+	// Word w at k on its row with each bit set if the pixel on its right is
+	private long fromRight(final int w, final int k) {
+		final long carry = k < stride - 1 ? words[w + 1] << 63 : 0;
+		return words[w] >>> 1 | carry;
+	}
+}
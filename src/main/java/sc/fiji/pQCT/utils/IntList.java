@@ -0,0 +1,164 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.utils;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A growable list of primitive ints. Used for the pixel coordinates of edges
+ * and ROIs, which would otherwise box every coordinate into an Integer.
+ */
+public final class IntList {
+
+	private int[] values;
+	private int size;
+
+	public IntList() {
+		this(16);
+	}
+
+	public IntList(final int capacity) {
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	private IntList(final int[] values, final int size) {
+		this.values = values;
+		this.size = size;
+	}
+
+	public void add(final int value) {
+		ensureCapacity(size + 1);
+		values[size++] = value;
+	}
+
+	/**
+	 * Inserts all the values of another list.
+	 *
+	 * @param index position of the first inserted value.
+	 * @param list the values to insert.
+	 */
+	public void addAll(final int index, final IntList list) {
+		checkRange(index, size);
+		ensureCapacity(size + list.size);
+		System.arraycopy(values, index, values, index + list.size, size - index);
+		System.arraycopy(list.values, 0, values, index, list.size);
+		size += list.size;
+	}
+
+	public void addAll(final IntList list) {
+		addAll(size, list);
+	}
+
+	public int get(final int index) {
+		checkRange(index, size - 1);
+		return values[index];
+	}
+
+	public void set(final int index, final int value) {
+		checkRange(index, size - 1);
+		values[index] = value;
+	}
+
+	public int last() {
+		return get(size - 1);
+	}
+
+	public int removeLast() {
+		final int value = last();
+		size--;
+		return value;
+	}
+
+	/**
+	 * Removes the values in [from, to).
+	 *
+	 * @param from index of the first removed value.
+	 * @param to index after the last removed value.
+	 */
+	public void removeRange(final int from, final int to) {
+		checkRange(from, to);
+		checkRange(to, size);
+		System.arraycopy(values, to, values, from, size - to);
+		size -= to - from;
+	}
+
+	/**
+	 * @param from index of the first copied value.
+	 * @param to index after the last copied value.
+	 * @return a new list of the values in [from, to).
+	 */
+	public IntList copyOfRange(final int from, final int to) {
+		checkRange(from, to);
+		checkRange(to, size);
+		return new IntList(Arrays.copyOfRange(values, from, Math.max(to, from +
+			1)), to - from);
+	}
+
+	public IntList copy() {
+		return copyOfRange(0, size);
+	}
+
+	public void reverse() {
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			final int tmp = values[i];
+			values[i] = values[j];
+			values[j] = tmp;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public IntStream stream() {
+		return Arrays.stream(values, 0, size);
+	}
+
+	public int[] toArray() {
+		return Arrays.copyOf(values, size);
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > values.length) {
+			values = Arrays.copyOf(values, Math.max(capacity, values.length +
+				(values.length >> 1)));
+		}
+	}
+
+	private static void checkRange(final int index, final int max) {
+		if (index < 0 || index > max) {
+			throw new IndexOutOfBoundsException("Index: " + index);
+		}
+	}
+}
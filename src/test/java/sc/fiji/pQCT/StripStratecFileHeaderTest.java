@@ -0,0 +1,252 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import sc.fiji.pQCT.io.StratecHeader;
+
+/**
+ * Strips synthetic Stratec files, whose headers and pixels are random bytes.
+ */
+public class StripStratecFileHeaderTest {
+
+	// MeasInfo and PatName
+	private static final boolean[] TO_STRIP = { true, false, false, true,
+		false };
+	private static final int[][] STRIPPED = { { 662, 986 }, { 1099, 1140 } };
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private final Random random = new Random(1609);
+
+	@Test
+	public void testStripFile() throws IOException {
+		final File in = scan(folder.getRoot(), "I0000001.M01");
+		final File out = new File(folder.getRoot(), "stripped.M01");
+
+		StripStratecFileHeader.stripFile(in, out, TO_STRIP);
+
+		assertStripped(in, out);
+		assertEquals(2, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testStripFileInPlace() throws IOException {
+		final File in = scan(folder.getRoot(), "I0000001.M01");
+		final File original = folder.newFile("original.M01");
+		Files.copy(in.toPath(), original.toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+
+		StripStratecFileHeader.stripFile(in, in, TO_STRIP);
+
+		assertStripped(original, in);
+	}
+
+	@Test
+	public void testShortFileLeavesNoOutput() throws IOException {
+		final File in = folder.newFile("I0000001.M01");
+		Files.write(in.toPath(), new byte[StratecHeader.HEADER_LENGTH - 1]);
+		final File out = new File(folder.getRoot(), "stripped.M01");
+
+		try {
+			StripStratecFileHeader.stripFile(in, out, TO_STRIP);
+			throw new AssertionError("A short file was stripped");
+		}
+		catch (final IOException e) {
+			// Expected
+		}
+
+		assertFalse(out.exists());
+		assertEquals(1, folder.getRoot().list().length);
+	}
+
+	@Test
+	public void testStrippedFileHasDefaultPermissions() throws IOException {
+		assumeTrue(Files.getFileStore(folder.getRoot().toPath())
+			.supportsFileAttributeView(PosixFileAttributeView.class));
+		final File in = scan(folder.getRoot(), "I0000001.M01");
+		final File out = new File(folder.getRoot(), "stripped.M01");
+		final File reference = new File(folder.getRoot(), "reference");
+		new FileOutputStream(reference).close();
+
+		StripStratecFileHeader.stripFile(in, out, TO_STRIP);
+
+		assertEquals(Files.getPosixFilePermissions(reference.toPath()), Files
+			.getPosixFilePermissions(out.toPath()));
+	}
+
+	@Test
+	public void testOverwrittenFileKeepsItsPermissions() throws IOException {
+		assumeTrue(Files.getFileStore(folder.getRoot().toPath())
+			.supportsFileAttributeView(PosixFileAttributeView.class));
+		final File in = scan(folder.getRoot(), "I0000001.M01");
+		final File out = folder.newFile("stripped.M01");
+		Files.setPosixFilePermissions(out.toPath(), PosixFilePermissions
+			.fromString("rw-r-----"));
+
+		StripStratecFileHeader.stripFile(in, out, TO_STRIP);
+
+		assertStripped(in, out);
+		assertEquals(PosixFilePermissions.fromString("rw-r-----"), Files
+			.getPosixFilePermissions(out.toPath()));
+	}
+
+	@Test
+	public void testStripDirectory() throws Exception {
+		final File in = folder.newFolder("in");
+		final File[] images = { scan(in, "I0000001.M01"), scan(mkdir(in, "a"),
+			"I0000002.M01"), scan(mkdir(in, "a/b"), "i0000003.m02") };
+		scan(in, "C0000001.M01");
+		scan(in, "S0000001.M01");
+		final File out = new File(folder.getRoot(), "out");
+
+		final int[] counts = StripStratecFileHeader.stripDirectory(in, out,
+			TO_STRIP, 2);
+
+		assertArrayEquals(new int[] { 3, 0, 0 }, counts);
+		for (final File image : images) {
+			assertStripped(image, new File(out, in.toPath().relativize(image
+				.toPath()).toString()));
+		}
+		// Only the image files are stripped
+		assertFalse(new File(out, "C0000001.M01").exists());
+		assertFalse(new File(out, "S0000001.M01").exists());
+		final List<String> manifest = manifest(out);
+		assertEquals(3, manifest.size());
+		assertTrue(manifest.contains("a" + File.separator + "I0000002.M01"));
+	}
+
+	@Test
+	public void testStripDirectoryResumes() throws Exception {
+		final File in = folder.newFolder("in");
+		scan(in, "I0000001.M01");
+		scan(mkdir(in, "a"), "I0000002.M01");
+		final File out = new File(folder.getRoot(), "out");
+		StripStratecFileHeader.stripDirectory(in, out, TO_STRIP, 2);
+		final File added = scan(in, "I0000003.M01");
+		final File corrupt = new File(in, "I0000004.M01");
+		Files.write(corrupt.toPath(), new byte[10]);
+
+		final int[] counts = StripStratecFileHeader.stripDirectory(in, out,
+			TO_STRIP, 2);
+
+		// The stripped files are skipped, the corrupt one fails
+		assertArrayEquals(new int[] { 1, 2, 1 }, counts);
+		assertStripped(added, new File(out, added.getName()));
+		assertFalse(new File(out, corrupt.getName()).exists());
+		assertEquals(3, manifest(out).size());
+		// and is tried again
+		assertArrayEquals(new int[] { 0, 3, 1 }, StripStratecFileHeader
+			.stripDirectory(in, out, TO_STRIP, 2));
+	}
+
+	@Test
+	public void testStripDirectoryInPlace() throws Exception {
+		final File in = folder.newFolder("in");
+		final File image = scan(mkdir(in, "a"), "I0000001.M01");
+		final File original = folder.newFile("original.M01");
+		Files.copy(image.toPath(), original.toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+
+		final int[] counts = StripStratecFileHeader.stripDirectory(in, null,
+			TO_STRIP, 1);
+
+		assertArrayEquals(new int[] { 1, 0, 0 }, counts);
+		assertStripped(original, image);
+		assertEquals(1, manifest(in).size());
+	}
+
+	@Test
+	public void testOutputInsideInput() throws Exception {
+		final File in = folder.newFolder("in");
+		final File image = scan(in, "I0000001.M01");
+		final File out = new File(in, "stripped");
+
+		StripStratecFileHeader.stripDirectory(in, out, TO_STRIP, 1);
+
+		// The stripped file isn't stripped again into out/stripped
+		assertArrayEquals(new int[] { 0, 1, 0 }, StripStratecFileHeader
+			.stripDirectory(in, out, TO_STRIP, 1));
+		assertStripped(image, new File(out, image.getName()));
+		assertFalse(new File(out, "stripped").exists());
+	}
+
+	// A header and 20 x 10 pixels of random bytes
+	private File scan(final File directory, final String name)
+		throws IOException
+	{
+		final byte[] bytes = new byte[StratecHeader.HEADER_LENGTH + 400];
+		random.nextBytes(bytes);
+		final File file = new File(directory, name);
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+
+	private static File mkdir(final File parent, final String path) {
+		final File directory = new File(parent, path);
+		assertTrue(directory.mkdirs());
+		return directory;
+	}
+
+	private static List<String> manifest(final File out) throws IOException {
+		return Files.readAllLines(new File(out, "strip_manifest.txt").toPath(),
+			StandardCharsets.UTF_8);
+	}
+
+	private static void assertStripped(final File original, final File stripped)
+		throws IOException
+	{
+		final byte[] expected = Files.readAllBytes(original.toPath());
+		for (final int[] field : STRIPPED) {
+			Arrays.fill(expected, field[0], field[1], (byte) 0);
+		}
+		assertArrayEquals(expected, Files.readAllBytes(stripped.toPath()));
+	}
+}
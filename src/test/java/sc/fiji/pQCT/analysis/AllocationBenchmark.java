@@ -0,0 +1,141 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.analysis;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ExecutionException;
+
+import ij.ImagePlus;
+import ij.process.ShortProcessor;
+
+import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
+import sc.fiji.pQCT.io.ScaledImageData;
+import sc.fiji.pQCT.io.StratecScan;
+import sc.fiji.pQCT.selectroi.SelectROI;
+import sc.fiji.pQCT.selectroi.SelectSoftROI;
+
+/**
+ * Measures the bytes allocated by a full analysis of a scan, for each pixel
+ * storage: the bone and soft tissue selections and every analysis. The scaled
+ * images are made anew before each analysis, outside the measurement. The
+ * bytes are summed over all threads, as the ray marching analyses may run on
+ * the common pool. Run with the test classpath from the project directory:
+ * <p>
+ * {@code java sc.fiji.pQCT.analysis.AllocationBenchmark [file] [analyses]}
+ * </p>
+ */
+public final class AllocationBenchmark {
+
+	private static final String[] CHOICES = { "Bigger", "Smaller", "Left",
+		"Right", "Top", "Bottom", "Central", "Peripheral", "SecondLargest",
+		"TwoLargestLeft", "TwoLargestRight", "FirstFromLeft", "SecondFromLeft",
+		"ThirdFromLeft", "FourthFromLeft", "FifthFromLeft", "FirstFromTop",
+		"SecondFromTop", "ThirdFromTop", "FourthFromTop", "FifthFromTop" };
+	private static final String[] ROTATIONS = { "According_to_Imax/Imin",
+		"Furthest_point", "All_Bones_Imax/Imin", "Not_selected_to_right",
+		"Selected_to_right" };
+	// The calibration of typ/XCT3010.TYP
+	private static final double SCALING = 1.484;
+	private static final double CONSTANT = -337.3;
+	private static final int WARM_UP = 5;
+
+	private AllocationBenchmark() {}
+
+	public static void main(final String[] args) throws Exception {
+		final File file = new File(args.length > 0 ? args[0]
+			: "manual_tests/I0025851.m01");
+		final int analyses = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		final StratecScan scan = StratecScan.read(file);
+		for (final PixelBuffer.Storage storage : PixelBuffer.Storage.values()) {
+			final ImageAndAnalysisDetails details = details(storage);
+			for (int i = 0; i < WARM_UP; i++) {
+				analyse(scan, details, storage);
+			}
+			long bytes = 0;
+			for (int i = 0; i < analyses; i++) {
+				bytes += analyse(scan, details, storage);
+			}
+			System.out.printf("%-6s %.1f MB per analysis%n", storage, bytes / 1e6 /
+				analyses);
+		}
+	}
+
+	// Returns the bytes allocated by the analysis
+	private static long analyse(final StratecScan scan,
+		final ImageAndAnalysisDetails details, final PixelBuffer.Storage storage)
+		throws ExecutionException
+	{
+		final int width = scan.header.picMatrixX;
+		final int height = scan.header.picMatrixY;
+		final ScaledImageData data = new ScaledImageData(scan.getSignedPixels(),
+			width, height, scan.header.voxelSize, details.scalingFactor,
+			details.constant, false, false, false, 1, storage);
+		final ImagePlus imp = new ImagePlus("", new ShortProcessor(width,
+			height));
+		final long before = allocatedBytes();
+		final SelectROI roi = new SelectROI(data, details, imp,
+			details.boneThreshold, false);
+		final SelectSoftROI softRoi = new SelectSoftROI(data, details, imp);
+		final DetermineAlpha alpha = new DetermineAlpha(roi, details);
+		new SoftTissueAnalysis(softRoi);
+		new CorticalAnalysis(roi);
+		new MassDistribution(roi, details, alpha);
+		new ConcentricRingAnalysis(roi, details, alpha);
+		new DistributionAnalysis(roi, details, alpha);
+		return allocatedBytes() - before;
+	}
+
+	private static long allocatedBytes() {
+		final com.sun.management.ThreadMXBean threads =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long bytes = 0;
+		for (final long allocated : threads.getThreadAllocatedBytes(threads
+			.getAllThreadIds()))
+		{
+			bytes += Math.max(0, allocated);
+		}
+		return bytes;
+	}
+
+	private static ImageAndAnalysisDetails details(
+		final PixelBuffer.Storage storage)
+	{
+		final boolean[] top = { false, false, false, false };
+		final double[] thresholds = { -40, 40, 40, 45, 80, 200, 200, 550, 690,
+			SCALING, CONSTANT };
+		final String[] alignment = { CHOICES[0], CHOICES[0], ROTATIONS[0], storage
+			.name() };
+		final boolean[] middle = { true, true, true, true, true, false, false,
+			true, false, false };
+		return new ImageAndAnalysisDetails(top, thresholds, alignment, CHOICES,
+			ROTATIONS, middle, 0.0, new boolean[8], new int[] { 10, 3, 10, 10 });
+	}
+}
@@ -0,0 +1,109 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.analysis;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import org.junit.Test;
+
+import sc.fiji.pQCT.io.PixelBuffer;
+
+/**
+ * Checks that stepping over the samples in the pixel last probed gives the
+ * radii and the samples of probing every sample.
+ */
+public class RayMarcherTest {
+
+	private static final int WIDTH = 67;
+	private static final int HEIGHT = 59;
+
+	@Test
+	public void testMarchingMatchesLegacy() {
+		final Random random = new Random(0x5EED);
+		for (int image = 0; image < 40; image++) {
+			final double[] values = new double[WIDTH * HEIGHT];
+			final double cx = 10 + random.nextDouble() * (WIDTH - 20);
+			final double cy = 10 + random.nextDouble() * (HEIGHT - 20);
+			final double inner = 2 + random.nextDouble() * 8;
+			final double outer = inner + 1 + random.nextDouble() * 12;
+			for (int i = 0; i < values.length; i++) {
+				final double d = Math.hypot(i % WIDTH - cx, i / WIDTH - cy);
+				values[i] = d >= inner && d < outer && random.nextInt(10) > 0 ? 1000 +
+					random.nextInt(200) : random.nextInt(100);
+			}
+			// Centres on pixel corners and in the middle of pixels too, where the
+			// samples fall on integers
+			final double x = image % 4 == 0 ? Math.floor(cx) : image % 4 == 1 ? Math
+				.floor(cx) + 0.5 : cx;
+			final double y = image % 3 == 0 ? Math.floor(cy) : image % 3 == 1 ? Math
+				.floor(cy) + 0.5 : cy;
+			final double border = Math.min(Math.min(x, y), Math.min(WIDTH - x,
+				HEIGHT - y));
+			assertSameMarching(PixelBuffer.wrap(values), x, y, Math.min(outer + 3,
+				border - 1));
+		}
+	}
+
+	private static void assertSameMarching(final PixelBuffer image,
+		final double x, final double y, final double maxR)
+	{
+		final RayMarcher legacy = new RayMarcher(WIDTH, x, y, true);
+		final RayMarcher crossings = new RayMarcher(WIDTH, x, y, false);
+		final IntPredicate bone = i -> i >= 0 && i < image.size() && image.get(
+			i) >= 500;
+		for (int angle = 0; angle < RayMarcher.ANGLES; angle++) {
+			final String at = "angle " + angle + " centre " + x + ", " + y;
+			final double expanded = legacy.expand(angle, 0.0, bone, maxR);
+			assertEquals(at, expanded, crossings.expand(angle, 0.0, bone, maxR), 0.0);
+			final double retreated = legacy.retreat(angle, maxR, expanded, bone);
+			assertEquals(at, retreated, crossings.retreat(angle, maxR, expanded,
+				bone), 0.0);
+			assertEquals(at, legacy.reach(angle, 0.0, bone), crossings.reach(angle,
+				0.0, bone), 0.0);
+			for (final boolean together : new boolean[] { false, true }) {
+				assertEquals(at, legacy.reach(angle, expanded, bone, maxR, together),
+					crossings.reach(angle, expanded, bone, maxR, together), 0.0);
+			}
+			final List<Double> expected = new ArrayList<>();
+			final List<Double> actual = new ArrayList<>();
+			assertEquals(at, legacy.sample(angle, 0.0, retreated, null, image, (r,
+				value) -> expected.add(r * value)), crossings.sample(angle, 0.0,
+					retreated, null, image, (r, value) -> actual.add(r * value)), 0.0);
+			assertEquals(at, legacy.sample(angle, expanded, retreated, bone, image, (
+				r, value) -> expected.add(value)), crossings.sample(angle, expanded,
+					retreated, bone, image, (r, value) -> actual.add(value)), 0.0);
+			assertEquals(at, expected, actual);
+		}
+	}
+}
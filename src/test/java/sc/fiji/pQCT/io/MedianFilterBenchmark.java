@@ -0,0 +1,103 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Times the sliding histogram median filters of {@link ScaledImageData}
+ * against the sort-based filter they replaced, on the same scan. Both scale
+ * the data and filter it with the 3 x 3 and the 7 x 7 window on one thread.
+ * Run with the test classpath from the project directory:
+ * <p>
+ * {@code java sc.fiji.pQCT.io.MedianFilterBenchmark [file] [repeats]}
+ * </p>
+ */
+public final class MedianFilterBenchmark {
+
+	// The calibration of typ/XCT3010.TYP
+	private static final double SCALING = 1.484;
+	private static final double CONSTANT = -337.3;
+	private static final int WARM_UP = 10;
+	private static double sink;
+
+	private MedianFilterBenchmark() {}
+
+	public static void main(final String[] args) throws IOException {
+		final File file = new File(args.length > 0 ? args[0]
+			: "manual_tests/I0025851.m01");
+		final int repeats = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		final StratecScan scan = StratecScan.read(file);
+		final int[] data = scan.getSignedPixels();
+		final int width = scan.header.picMatrixX;
+		final int height = scan.header.picMatrixY;
+		for (int i = 0; i < WARM_UP; i++) {
+			sink += sorted(data, width, height)[0];
+			sink += histogram(data, width, height)[0];
+		}
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < repeats; i++) {
+				sink += sorted(data, width, height)[0];
+			}
+			final double sort = (System.nanoTime() - start) / 1e6 / repeats;
+			start = System.nanoTime();
+			for (int i = 0; i < repeats; i++) {
+				sink += histogram(data, width, height)[0];
+			}
+			final double histogram = (System.nanoTime() - start) / 1e6 / repeats;
+			System.out.printf("%d x %d: sort %.1f ms, histogram %.1f ms%n", width,
+				height, sort, histogram);
+		}
+		System.out.println(sink == 42 ? "" : "done");
+	}
+
+	private static double[] sorted(final int[] data, final int width,
+		final int height)
+	{
+		final double[] scaled = ScaledImageDataTest.scale(data, SCALING,
+			CONSTANT);
+		final double[] filtered = ScaledImageDataTest.sortMedian(scaled, width,
+			height, 3);
+		final double[] soft = ScaledImageDataTest.sortMedian(scaled, width,
+			height, 7);
+		return new double[] { filtered[width + 1], soft[3 * width + 3] };
+	}
+
+	private static double[] histogram(final int[] data, final int width,
+		final int height)
+	{
+		final ScaledImageData image = new ScaledImageData(data, width, height,
+			0.5, SCALING, CONSTANT, false, false, false, 1,
+			PixelBuffer.Storage.DOUBLE);
+		return new double[] { image.scaledImage.get(width + 1),
+			image.softScaledImage.get(3 * width + 3) };
+	}
+}
@@ -0,0 +1,178 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the histogram median filters of ScaledImageData with a plain
+ * sort-based median filter of the scaled data.
+ */
+public class ScaledImageDataTest {
+
+	private static final double SCALING = 1.724;
+	private static final double CONSTANT = -322.0;
+
+	@Test
+	public void testMedianFiltersMatchSortedWindows() {
+		final Random random = new Random(0xC0FFEE);
+		for (int seed = 0; seed < 5; seed++) {
+			final int width = 12 + random.nextInt(30);
+			final int height = 9 + random.nextInt(30);
+			final int[] data = randomData(random, width * height, -2000, 9000);
+			assertFiltered(data, width, height, SCALING, CONSTANT, 1);
+		}
+	}
+
+	@Test
+	public void testNegativeScaling() {
+		final Random random = new Random(7);
+		final int[] data = randomData(random, 23 * 17, -500, 500);
+		assertFiltered(data, 23, 17, -0.5, 10.0, 1);
+	}
+
+	@Test
+	public void testBandsMatchSingleBand() {
+		final Random random = new Random(42);
+		final int[] data = randomData(random, 40 * 31, 0, 4000);
+		for (final int parallelism : new int[] { 2, 3, 5, 31, 64 }) {
+			assertFiltered(data, 40, 31, SCALING, CONSTANT, parallelism);
+		}
+	}
+
+	@Test
+	public void testImageSmallerThanWindow() {
+		final Random random = new Random(3);
+		final int[] data = randomData(random, 5 * 4, 0, 100);
+		assertFiltered(data, 5, 4, SCALING, CONSTANT, 1);
+	}
+
+	@Test
+	public void testRangeAboveHistogramLimitFallsBackToSorting() {
+		final Random random = new Random(11);
+		final int[] data = randomData(random, 25 * 19, -600_000, 600_000);
+		assertFiltered(data, 25, 19, 0.001, 0.0, 1);
+		assertFiltered(data, 25, 19, 0.001, 0.0, 4);
+	}
+
+	@Test
+	public void testNoFiltering() {
+		final Random random = new Random(5);
+		final int[] data = randomData(random, 20 * 15, -100, 3000);
+		final ScaledImageData image = new ScaledImageData(data, 20, 15, 0.5,
+			SCALING, CONSTANT, false, false, true, 3, PixelBuffer.Storage.DOUBLE);
+		assertArrayEquals(scale(data, SCALING, CONSTANT), image.scaledImage
+			.toArray(), 0.0);
+		assertArrayEquals(sortMedian(scale(data, SCALING, CONSTANT), 20, 15, 7),
+			image.softScaledImage.toArray(), 0.0);
+	}
+
+	@Test
+	public void testShortStorage() {
+		final Random random = new Random(13);
+		final int[] data = randomData(random, 30 * 22, -1000, 1000);
+		final double[] scaled = scale(data, SCALING, CONSTANT);
+		final ScaledImageData image = new ScaledImageData(data, 30, 22, 0.5,
+			SCALING, CONSTANT, false, false, false, 2, PixelBuffer.Storage.SHORT);
+		assertEquals(PixelBuffer.Storage.SHORT, image.scaledImage.getStorage());
+		assertArrayEquals(sortMedian(scaled, 30, 22, 3), image.scaledImage
+			.toArray(), 0.0);
+		assertArrayEquals(sortMedian(scaled, 30, 22, 7), image.softScaledImage
+			.toArray(), 0.0);
+	}
+
+	private static void assertFiltered(final int[] data, final int width,
+		final int height, final double scalingFactor, final double constant,
+		final int parallelism)
+	{
+		final double[] scaled = scale(data, scalingFactor, constant);
+		final ScaledImageData image = new ScaledImageData(data, width, height, 0.5,
+			scalingFactor, constant, false, false, false, parallelism,
+			PixelBuffer.Storage.DOUBLE);
+		assertEquals(Arrays.stream(scaled).min().getAsDouble(), image.minimum,
+			0.0);
+		assertArrayEquals(sortMedian(scaled, width, height, 3), image.scaledImage
+			.toArray(), 0.0);
+		assertArrayEquals(sortMedian(scaled, width, height, 7),
+			image.softScaledImage.toArray(), 0.0);
+	}
+
+	private static int[] randomData(final Random random, final int size,
+		final int min, final int max)
+	{
+		final int[] data = new int[size];
+		for (int i = 0; i < size; i++) {
+			// Few distinct values too, so that the windows have ties
+			data[i] = i % 3 == 0 ? min + random.nextInt(4) : min + random.nextInt(
+				max - min);
+		}
+		return data;
+	}
+
+	static double[] scale(final int[] data, final double scalingFactor,
+		final double constant)
+	{
+		final double[] scaled = new double[data.length];
+		for (int i = 0; i < data.length; i++) {
+			scaled[i] = data[i] * scalingFactor + constant;
+		}
+		return scaled;
+	}
+
+	// The original filter: the frame is the minimum, the inside the middle
+	// element of the sorted window
+	static double[] sortMedian(final double[] data, final int width,
+		final int height, final int filterSize)
+	{
+		final double minimum = Arrays.stream(data).min().getAsDouble();
+		final double[] filtered = new double[width * height];
+		Arrays.fill(filtered, minimum);
+		final int noGo = filterSize / 2;
+		final double[] window = new double[filterSize * filterSize];
+		for (int row = noGo; row < height - noGo; row++) {
+			for (int col = noGo; col < width - noGo; col++) {
+				int n = 0;
+				for (int j = row - noGo; j <= row + noGo; j++) {
+					for (int i = col - noGo; i <= col + noGo; i++) {
+						window[n++] = data[j * width + i];
+					}
+				}
+				Arrays.sort(window);
+				filtered[row * width + col] = window[window.length / 2];
+			}
+		}
+		return filtered;
+	}
+}
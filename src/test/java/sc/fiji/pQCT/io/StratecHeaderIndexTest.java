@@ -0,0 +1,215 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Indexes copies of the sample measurement in a temporary directory tree.
+ */
+public class StratecHeaderIndexTest {
+
+	private static final File SAMPLES = new File("manual_tests");
+	private static final String[] FILES = { "I0025851.m01", "C0025851.m01",
+		"S0025851.m01" };
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private File root;
+	private File indexFile;
+
+	@Before
+	public void setUp() throws IOException {
+		assumeTrue(new File(SAMPLES, FILES[0]).isFile());
+		root = folder.newFolder("scans");
+		final File site = new File(root, "tibia");
+		assertTrue(site.mkdir());
+		for (final String name : FILES) {
+			Files.copy(new File(SAMPLES, name).toPath(), new File(site, name)
+				.toPath());
+		}
+		indexFile = new File(folder.getRoot(), "headers.idx");
+	}
+
+	@Test
+	public void testGroupsImageCtAndScoutFiles() throws IOException {
+		final StratecHeaderIndex index = StratecHeaderIndex.open(indexFile);
+
+		assertEquals(3, index.update(root));
+
+		assertEquals(1, index.measurements().size());
+		final StratecHeaderIndex.Measurement measurement = index.measurements()
+			.iterator().next();
+		assertEquals(FILES[0], measurement.imageFile.getName());
+		assertEquals(FILES[1], measurement.ctFile.getName());
+		assertEquals(FILES[2], measurement.scoutFile.getName());
+		final StratecHeader header = StratecHeader.read(measurement.imageFile);
+		assertSameHeader(header, measurement.header);
+		assertNotNull(measurement.ctHeader);
+		assertEquals(singleton(measurement), index.findByPatID(header.patID));
+		assertEquals(singleton(measurement), index.findByPatNo(header.patNo));
+		assertEquals(singleton(measurement), index.findByMeasDate(
+			header.measDate));
+		assertTrue(index.findByPatNo(header.patNo + 1).isEmpty());
+	}
+
+	@Test
+	public void testSaveAndOpen() throws IOException {
+		final StratecHeaderIndex index = StratecHeaderIndex.open(indexFile);
+		index.update(root);
+		index.save();
+
+		final StratecHeaderIndex loaded = StratecHeaderIndex.open(indexFile);
+
+		final StratecHeaderIndex.Measurement expected = index.measurements()
+			.iterator().next();
+		final StratecHeaderIndex.Measurement actual = loaded.measurements()
+			.iterator().next();
+		assertEquals(expected.key, actual.key);
+		assertEquals(expected.imageFile, actual.imageFile);
+		assertEquals(expected.ctFile, actual.ctFile);
+		assertEquals(expected.scoutFile, actual.scoutFile);
+		assertSameHeader(expected.header, actual.header);
+		assertEquals(expected.ctHeader.percent, actual.ctHeader.percent, 0.0);
+		assertEquals(expected.ctHeader.site, actual.ctHeader.site);
+		assertEquals(singleton(actual), loaded.findByPatID(actual.header.patID));
+		// Nothing changed since the index was saved
+		assertEquals(0, loaded.update(root));
+	}
+
+	@Test
+	public void testRereadsChangedFiles() throws IOException {
+		final StratecHeaderIndex index = StratecHeaderIndex.open(indexFile);
+		index.update(root);
+		final File image = index.measurements().iterator().next().imageFile;
+		final File scout = index.measurements().iterator().next().scoutFile;
+
+		assertTrue(image.setLastModified(image.lastModified() - 60_000));
+		assertEquals(1, index.update(root));
+		Files.write(scout.toPath(), new byte[1], StandardOpenOption.APPEND);
+		assertEquals(1, index.update(root));
+		assertEquals(0, index.update(root));
+	}
+
+	@Test
+	public void testDropsDeletedFiles() throws IOException {
+		final StratecHeaderIndex index = StratecHeaderIndex.open(indexFile);
+		index.update(root);
+		final StratecHeaderIndex.Measurement measurement = index.measurements()
+			.iterator().next();
+
+		Files.delete(measurement.ctFile.toPath());
+		assertEquals(0, index.update(root));
+		final StratecHeaderIndex.Measurement updated = index.measurements()
+			.iterator().next();
+		assertNull(updated.ctFile);
+		assertNull(updated.ctHeader);
+		assertNotNull(updated.header);
+
+		Files.delete(measurement.imageFile.toPath());
+		Files.delete(measurement.scoutFile.toPath());
+		index.update(root);
+		assertTrue(index.measurements().isEmpty());
+		assertTrue(index.findByPatID(measurement.header.patID).isEmpty());
+	}
+
+	@Test
+	public void testIndexesCorruptFilesWithoutHeaders() throws IOException {
+		final File corrupt = new File(root, "I0000001.M01");
+		Files.copy(new File(SAMPLES, FILES[0]).toPath(), corrupt.toPath(),
+			StandardCopyOption.REPLACE_EXISTING);
+		// Overwrite the device string and its length
+		final byte[] bytes = Files.readAllBytes(corrupt.toPath());
+		bytes[1050] = (byte) 0xFF;
+		Files.write(corrupt.toPath(), bytes);
+		final StratecHeaderIndex index = StratecHeaderIndex.open(indexFile);
+
+		assertEquals(4, index.update(root));
+
+		assertEquals(2, index.measurements().size());
+		final StratecHeaderIndex.Measurement measurement = index.measurements()
+			.stream().filter(m -> m.imageFile.equals(corrupt.getAbsoluteFile()))
+			.findFirst().get();
+		assertNull(measurement.header);
+		// Not re-read until it changes
+		assertEquals(0, index.update(root));
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void testLookupsAreUnmodifiable() throws IOException {
+		final StratecHeaderIndex index = StratecHeaderIndex.open(indexFile);
+		index.update(root);
+		final StratecHeaderIndex.Measurement measurement = index.measurements()
+			.iterator().next();
+
+		index.findByPatID(measurement.header.patID).clear();
+	}
+
+	private static List<StratecHeaderIndex.Measurement> singleton(
+		final StratecHeaderIndex.Measurement measurement)
+	{
+		final List<StratecHeaderIndex.Measurement> list = new ArrayList<>();
+		list.add(measurement);
+		return list;
+	}
+
+	private static void assertSameHeader(final StratecHeader expected,
+		final StratecHeader actual)
+	{
+		assertEquals(expected.fileName, actual.fileName);
+		assertEquals(expected.patName, actual.patName);
+		assertEquals(expected.patID, actual.patID);
+		assertEquals(expected.patNo, actual.patNo);
+		assertEquals(expected.patMeasNo, actual.patMeasNo);
+		assertEquals(expected.patBirth, actual.patBirth);
+		assertEquals(expected.measDate, actual.measDate);
+		assertEquals(expected.voxelSize, actual.voxelSize, 0.0);
+		assertEquals(expected.picMatrixX, actual.picMatrixX);
+		assertEquals(expected.picMatrixY, actual.picMatrixY);
+		assertEquals(expected.device, actual.device);
+		assertEquals(expected.objLen, actual.objLen, 0.0);
+	}
+}
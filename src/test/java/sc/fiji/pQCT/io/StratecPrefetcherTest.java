@@ -0,0 +1,215 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reads batches of synthetic scans, counting the scans and bytes in memory:
+ * the ones read, less the ones the test is done with.
+ */
+public class StratecPrefetcherTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+	private final AtomicInteger inMemory = new AtomicInteger();
+	private final AtomicInteger maxInMemory = new AtomicInteger();
+	private final AtomicLong bytesInMemory = new AtomicLong();
+	private final AtomicLong maxBytesInMemory = new AtomicLong();
+	private final Set<String> started = ConcurrentHashMap.newKeySet();
+
+	@Test
+	public void testReturnsScansInOrder() throws Exception {
+		final List<File> files = scans(12, 20);
+		try (final StratecPrefetcher prefetcher = new StratecPrefetcher(files,
+			3))
+		{
+			for (int i = 0; i < files.size(); i++) {
+				assertTrue(prefetcher.hasNext());
+				final StratecScan scan = prefetcher.next();
+				assertEquals(files.get(i).getName(), scan.header.fileName);
+				assertEquals(i, scan.getSignedPixels()[0]);
+			}
+			assertFalse(prefetcher.hasNext());
+		}
+	}
+
+	@Test
+	public void testFailedReadDoesNotEndTheBatch() throws Exception {
+		final List<File> files = scans(5, 20);
+		Files.write(files.get(2).toPath(), new byte[100]);
+		try (final StratecPrefetcher prefetcher = new StratecPrefetcher(files,
+			2))
+		{
+			assertEquals(0, prefetcher.next().getSignedPixels()[0]);
+			assertEquals(1, prefetcher.next().getSignedPixels()[0]);
+			try {
+				prefetcher.next();
+				fail("A short file was read");
+			}
+			catch (final IOException e) {
+				// Expected
+			}
+			assertEquals(3, prefetcher.next().getSignedPixels()[0]);
+			assertEquals(4, prefetcher.next().getSignedPixels()[0]);
+		}
+	}
+
+	@Test
+	public void testDepthBoundsScansInMemory() throws Exception {
+		final List<File> files = scans(10, 20);
+		try (final StratecPrefetcher prefetcher = countingPrefetcher(files, 3,
+			Long.MAX_VALUE))
+		{
+			readAll(prefetcher, files);
+			// The first scan and the two read ahead of it
+			waitForStarted(3);
+		}
+		assertTrue("Scans in memory " + maxInMemory, maxInMemory.get() <= 3);
+		assertEquals(10, started.size());
+	}
+
+	@Test
+	public void testMaxBytesBoundsBytesInMemory() throws Exception {
+		final List<File> files = scans(10, 20);
+		final long size = files.get(0).length();
+		try (final StratecPrefetcher prefetcher = countingPrefetcher(files, 8,
+			2 * size + size / 2))
+		{
+			readAll(prefetcher, files);
+		}
+		assertTrue("Bytes in memory " + maxBytesInMemory, maxBytesInMemory
+			.get() <= 2 * size);
+		assertTrue("Scans in memory " + maxInMemory, maxInMemory.get() <= 2);
+	}
+
+	@Test
+	public void testFileBiggerThanMaxBytesIsRead() throws Exception {
+		final List<File> files = scans(4, 20);
+		try (final StratecPrefetcher prefetcher = countingPrefetcher(files, 4,
+			10))
+		{
+			readAll(prefetcher, files);
+		}
+		assertEquals(1, maxInMemory.get());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testNextAfterTheLastScan() throws Exception {
+		try (final StratecPrefetcher prefetcher = new StratecPrefetcher(scans(1,
+			20), 1))
+		{
+			prefetcher.next();
+			prefetcher.next();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDepthMustBePositive() throws Exception {
+		new StratecPrefetcher(Collections.emptyList(), 0).close();
+	}
+
+	private StratecPrefetcher countingPrefetcher(final List<File> files,
+		final int depth, final long maxBytes)
+	{
+		return new StratecPrefetcher(files, depth, maxBytes, file -> {
+			started.add(file.getName());
+			maxInMemory.accumulateAndGet(inMemory.incrementAndGet(), Math::max);
+			maxBytesInMemory.accumulateAndGet(bytesInMemory.addAndGet(file
+				.length()), Math::max);
+			return StratecScan.read(file);
+		});
+	}
+
+	// Releases each scan before asking for the next one
+	private void readAll(final StratecPrefetcher prefetcher,
+		final List<File> files) throws Exception
+	{
+		for (int i = 0; i < files.size(); i++) {
+			if (i > 0) {
+				inMemory.decrementAndGet();
+				bytesInMemory.addAndGet(-files.get(i - 1).length());
+			}
+			final StratecScan scan = prefetcher.next();
+			assertEquals(i, scan.getSignedPixels()[0]);
+		}
+	}
+
+	private void waitForStarted(final int n) throws InterruptedException {
+		final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (started.size() < n && System.nanoTime() < end) {
+			Thread.sleep(1);
+		}
+		assertTrue(started.size() >= n);
+	}
+
+	// Scans whose first pixel is their number in the batch
+	private List<File> scans(final int n, final int width) throws IOException {
+		final List<File> files = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			final ByteBuffer buffer = ByteBuffer.allocate(
+				StratecHeader.HEADER_LENGTH + 2 * width * width).order(
+					ByteOrder.LITTLE_ENDIAN);
+			final String device = "XCT2000.TYP";
+			buffer.put(1050, (byte) device.length());
+			for (int c = 0; c < device.length(); c++) {
+				buffer.put(1051 + c, (byte) device.charAt(c));
+			}
+			buffer.putShort(1529, (short) width);
+			buffer.putShort(1531, (short) width);
+			buffer.putShort(StratecHeader.HEADER_LENGTH, (short) i);
+			final File file = new File(folder.getRoot(), String.format(
+				"I%07d.M01", i));
+			Files.write(file.toPath(), buffer.array());
+			files.add(file);
+		}
+		return files;
+	}
+}
@@ -0,0 +1,109 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Times {@link StratecScan#read(File)}, which maps the file, against the heap
+ * decode it replaced: the file read into a byte[] through a DataInputStream,
+ * and the pixels decoded a short at a time. Run with the test classpath from
+ * the project directory:
+ * <p>
+ * {@code java sc.fiji.pQCT.io.StratecScanBenchmark [file] [reads]}
+ * </p>
+ */
+public final class StratecScanBenchmark {
+
+	private static final int WARM_UP = 300;
+	private static int sink;
+
+	private StratecScanBenchmark() {}
+
+	public static void main(final String[] args) throws IOException {
+		final File file = new File(args.length > 0 ? args[0]
+			: "manual_tests/I0025851.m01");
+		final int reads = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		for (int i = 0; i < WARM_UP; i++) {
+			sink += heapDecode(file).length;
+			sink += StratecScan.read(file).getMax();
+		}
+		// Alternate the readers so that both see the same state of the caches
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < reads; i++) {
+				sink += heapDecode(file).length;
+			}
+			final double heap = (System.nanoTime() - start) / 1e6 / reads;
+			start = System.nanoTime();
+			for (int i = 0; i < reads; i++) {
+				sink += StratecScan.read(file).getMax();
+			}
+			final double mapped = (System.nanoTime() - start) / 1e6 / reads;
+			System.out.printf("heap decode %.3f ms, mapped read %.3f ms per file%n",
+				heap, mapped);
+		}
+		System.out.println(sink == 42 ? "" : "done");
+	}
+
+	// The reader before the memory-mapped one, without the ImagePlus
+	private static short[] heapDecode(final File file) throws IOException {
+		final int bytes = (int) file.length();
+		try (final DataInputStream dataInputStream = new DataInputStream(
+			new BufferedInputStream(new FileInputStream(file))))
+		{
+			final byte[] data = new byte[bytes];
+			dataInputStream.readFully(data, 0, bytes);
+			final ByteBuffer buffer = ByteBuffer.wrap(data).order(
+				ByteOrder.LITTLE_ENDIAN);
+			final StratecHeader header = new StratecHeader(file, buffer);
+			final int size = header.picMatrixX * header.picMatrixY;
+			final short[] pixels = new short[size];
+			int min = Short.MAX_VALUE;
+			int max = Short.MIN_VALUE;
+			buffer.position(StratecHeader.HEADER_LENGTH);
+			for (int i = 0; i < size; i++) {
+				final short stored = buffer.getShort();
+				final int pixel = (stored >= 0 ? -0x8000 : 0x8000 - 1) + stored;
+				final int unsignedShort = pixel & 0xFFFF;
+				min = Math.min(min, unsignedShort);
+				max = Math.max(max, unsignedShort);
+				pixels[i] = (short) pixel;
+			}
+			sink += min + max;
+			return pixels;
+		}
+	}
+}
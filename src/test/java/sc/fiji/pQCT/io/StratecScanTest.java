@@ -0,0 +1,128 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Compares the memory-mapped StratecScan reader with decoding the whole file
+ * from a heap buffer, as the reader did before.
+ */
+public class StratecScanTest {
+
+	@Rule
+	public final TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testSyntheticScan() throws IOException {
+		final short[] stored = { 0, 1, -1, Short.MIN_VALUE, Short.MAX_VALUE, 1234,
+			-4321, 17, 32000, -32000, 2, 3 };
+		final ByteBuffer buffer = ByteBuffer.allocate(StratecHeader.HEADER_LENGTH +
+			2 * stored.length).order(ByteOrder.LITTLE_ENDIAN);
+		putString(buffer, 1050, "XCT2000.TYP");
+		putString(buffer, 1099, "Doe");
+		buffer.putDouble(12, 0.5);
+		buffer.putShort(1529, (short) 4);
+		buffer.putShort(1531, (short) 3);
+		buffer.position(StratecHeader.HEADER_LENGTH);
+		buffer.asShortBuffer().put(stored);
+		final File file = folder.newFile("I0000001.M01");
+		Files.write(file.toPath(), buffer.array());
+
+		final StratecScan scan = StratecScan.read(file);
+
+		assertEquals(4, scan.header.picMatrixX);
+		assertEquals(3, scan.header.picMatrixY);
+		assertEquals(0.5, scan.header.voxelSize, 0.0);
+		assertEquals("XCT2000.TYP", scan.header.device);
+		assertEquals("Doe", scan.header.patName);
+		assertDecodedAsBefore(file, scan);
+	}
+
+	@Test
+	public void testManualTestScan() throws IOException {
+		final File file = new File("manual_tests/I0025851.m01");
+		assumeTrue(file.isFile());
+		assertDecodedAsBefore(file, StratecScan.read(file));
+	}
+
+	@Test(expected = IOException.class)
+	public void testShortFile() throws IOException {
+		final File file = folder.newFile("I0000002.M01");
+		Files.write(file.toPath(), new byte[StratecHeader.HEADER_LENGTH - 1]);
+		StratecScan.read(file);
+	}
+
+	private static void assertDecodedAsBefore(final File file,
+		final StratecScan scan) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file
+			.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+		final int size = buffer.getShort(1529) * buffer.getShort(1531);
+		final short[] pixels = new short[size];
+		final int[] signed = new int[size];
+		int min = Short.MAX_VALUE;
+		int max = Short.MIN_VALUE;
+		buffer.position(StratecHeader.HEADER_LENGTH);
+		for (int i = 0; i < size; i++) {
+			final short value = buffer.getShort();
+			final int pixel = (value >= 0 ? -0x8000 : 0x8000 - 1) + value;
+			min = Math.min(min, pixel & 0xFFFF);
+			max = Math.max(max, pixel & 0xFFFF);
+			pixels[i] = (short) pixel;
+			// PqctAnalysis subtracted 2^15 from the calibrated ImageJ value
+			signed[i] = (pixel & 0xFFFF) - 0x8000;
+		}
+		assertArrayEquals(pixels, scan.getPixels());
+		assertArrayEquals(signed, scan.getSignedPixels());
+		assertEquals(min, scan.getMin());
+		assertEquals(max, scan.getMax());
+	}
+
+	private static void putString(final ByteBuffer buffer, final int position,
+		final String value)
+	{
+		buffer.put(position, (byte) value.length());
+		for (int i = 0; i < value.length(); i++) {
+			buffer.put(position + 1 + i, (byte) value.charAt(i));
+		}
+	}
+}
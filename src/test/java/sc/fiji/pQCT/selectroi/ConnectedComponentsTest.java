@@ -0,0 +1,346 @@
+/*
+BSD 2-Clause License
+
+Copyright (c) 2018, Timo Rantalainen
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are met:
+
+* Redistributions of source code must retain the above copyright notice, this
+  list of conditions and the following disclaimer.
+
+* Redistributions in binary form must reproduce the above copyright notice,
+  this list of conditions and the following disclaimer in the documentation
+  and/or other materials provided with the distribution.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+package sc.fiji.pQCT.selectroi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import ij.ImagePlus;
+import ij.process.ShortProcessor;
+import org.junit.Test;
+
+import sc.fiji.pQCT.io.ImageAndAnalysisDetails;
+import sc.fiji.pQCT.io.PixelBuffer;
+import sc.fiji.pQCT.io.ScaledImageData;
+import sc.fiji.pQCT.io.StratecScan;
+
+/**
+ * Checks the labelling, and that the bones found by labelling components are
+ * the ones edge tracing finds.
+ */
+public class ConnectedComponentsTest {
+
+	private static final String[] CHOICES = { "Bigger", "Smaller", "Left",
+		"Right", "Top", "Bottom", "Central", "Peripheral", "SecondLargest",
+		"TwoLargestLeft", "TwoLargestRight", "FirstFromLeft", "SecondFromLeft",
+		"ThirdFromLeft", "FourthFromLeft", "FifthFromLeft", "FirstFromTop",
+		"SecondFromTop", "ThirdFromTop", "FourthFromTop", "FifthFromTop" };
+	private static final String[] ROTATIONS = { "According_to_Imax/Imin",
+		"Furthest_point", "All_Bones_Imax/Imin", "Not_selected_to_right",
+		"Selected_to_right" };
+	// Choices that don't depend on how the bones are ranked by position
+	private static final String[] UNRANKED = { "Bigger", "Smaller", "Central",
+		"Peripheral", "SecondLargest" };
+
+	@Test
+	public void testLabelsEightConnectedComponents() {
+		final String[] rows = { //
+			"............", //
+			".##...#.#...", //
+			"..#...#.#...", //
+			"......###...", //
+			".#..........", //
+			"...##..##...", //
+			"...#....##..", //
+			"............" };
+		final ConnectedComponents components = components(rows, 0.5);
+
+		// The arms of the U are labelled apart and merged on the last row
+		assertEquals(5, components.count);
+		assertEquals(1 + 12, components.firstPixel(1));
+		assertEquals(6 + 12, components.firstPixel(2));
+		assertEquals(1 + 4 * 12, components.firstPixel(3));
+		assertEquals(3 + 5 * 12, components.firstPixel(4));
+		assertEquals(7 + 5 * 12, components.firstPixel(5));
+		final ChainCode chain = components.traceContour(2);
+		final DetectedEdge u = components.edge(2, chain, 0);
+		assertEquals(6, u.minX);
+		assertEquals(1, u.minY);
+		assertEquals(8, u.maxX);
+		assertEquals(3, u.maxY);
+		assertEquals(7.0, u.centreX, 1e-12);
+		assertEquals(15.0 / 7.0, u.centreY, 1e-12);
+		for (int label = 1; label <= components.count; label++) {
+			assertFalse(components.touchesBorder(label));
+		}
+	}
+
+	@Test
+	public void testThresholdIsInclusive() {
+		final PixelBuffer image = PixelBuffer.wrap(new double[] { 0, 0, 0, 0, 1,
+			0, 0, 0, 0 });
+		assertEquals(1, new ConnectedComponents(image, 3, 3, 1).count);
+		assertEquals(0, new ConnectedComponents(image, 3, 3, 1.5).count);
+	}
+
+	@Test
+	public void testTouchesBorder() {
+		final String[] rows = { //
+			".....", //
+			"..#..", //
+			"#....", //
+			"....." };
+		final ConnectedComponents components = components(rows, 0.5);
+		assertEquals(2, components.count);
+		assertFalse(components.touchesBorder(1));
+		assertTrue(components.touchesBorder(2));
+	}
+
+	@Test
+	public void testFillsHolesButDoesNotCountTheContour() {
+		final String[] rows = { //
+			"...........", //
+			"...........", //
+			"..#######..", //
+			"..#######..", //
+			"..##...##..", //
+			"..##...##..", //
+			"..##...##..", //
+			"..#######..", //
+			"..#######..", //
+			"...........", //
+			"..........." };
+		final ConnectedComponents components = components(rows, 0.5);
+		assertEquals(1, components.count);
+		final ChainCode chain = components.traceContour(1);
+		// The outer edge of the 7 x 7 square, clockwise from its first pixel
+		assertEquals(24, chain.points());
+		assertEquals(0, chain.direction(0));
+		final byte[] mask = new byte[11 * 11];
+		// 49 pixels within the contour, of which 24 are on it
+		assertEquals(25, components.fill(1, chain, mask));
+		for (int j = 0; j < 11; j++) {
+			for (int i = 0; i < 11; i++) {
+				final boolean inside = i >= 2 && i <= 8 && j >= 2 && j <= 8;
+				assertEquals(inside ? 1 : 0, mask[i + j * 11]);
+			}
+		}
+	}
+
+	@Test
+	public void testDropsComponentsCutByTheBorder() throws ExecutionException {
+		final int width = 60;
+		final int height = 50;
+		final int[] image = new int[width * height];
+		paintBone(image, width, 4, 25, 10, 0);
+		paintBone(image, width, 35, 25, 9, 4);
+		final SelectROI roi = select(image, width, height, "Bigger", true, false);
+		assertEquals(1, roi.edges.size());
+		assertEquals(27, roi.edges.get(0).minX);
+	}
+
+	@Test
+	public void testRanksComponentsByBoundingBox() throws ExecutionException {
+		// The first row of the big bone starts right of the small bone, but the
+		// big bone reaches further left
+		final int width = 100;
+		final int height = 100;
+		final int[] image = new int[width * height];
+		paintBone(image, width, 40, 40, 20, 8);
+		paintBone(image, width, 32, 75, 5, 0);
+		final int big = 0;
+		final int small = 1;
+		assertEquals(small, select(image, width, height, "Left", false,
+			false).selection);
+		assertEquals(big, select(image, width, height, "Left", true,
+			false).selection);
+		assertEquals(big, select(image, width, height, "Right", false,
+			false).selection);
+		assertEquals(small, select(image, width, height, "Right", true,
+			false).selection);
+		assertEquals(big, select(image, width, height, "Top", true,
+			false).selection);
+	}
+
+	@Test
+	public void testSameBonesAsEdgeTracing() throws ExecutionException {
+		final Random random = new Random(0xB0E5);
+		final int width = 120;
+		final int height = 100;
+		for (int n = 0; n < 20; n++) {
+			final int[] image = new int[width * height];
+			// Two to four bones apart from each other, some with marrow
+			final int bones = 2 + random.nextInt(3);
+			for (int b = 0; b < bones; b++) {
+				final int x = 15 + b * (width - 30) / bones + random.nextInt(8);
+				final int y = 15 + random.nextInt(height - 30);
+				final int radius = 4 + random.nextInt(8);
+				paintBone(image, width, x, y, radius, random.nextBoolean() ? 0
+					: random.nextInt(radius - 2));
+			}
+			for (int i = 0; i < image.length; i++) {
+				image[i] += random.nextInt(40);
+			}
+			assertSameBones(image, width, height, UNRANKED, false);
+		}
+	}
+
+	@Test
+	public void testSameCleavingAsEdgeTracing() throws ExecutionException {
+		// Two bones joined by a narrow bridge are cleaved apart
+		final int width = 90;
+		final int height = 60;
+		final int[] image = new int[width * height];
+		paintBone(image, width, 25, 30, 14, 6);
+		paintBone(image, width, 62, 30, 12, 0);
+		for (int i = 38; i <= 51; i++) {
+			image[i + 30 * width] = 1000;
+			image[i + 31 * width] = 1000;
+		}
+		final SelectROI roi = select(image, width, height, "Bigger", true, true);
+		assertEquals(2, roi.edges.size());
+		assertSameBones(image, width, height, UNRANKED, true);
+	}
+
+	@Test
+	public void testSameBonesAsEdgeTracingOnTheSampleScan() throws Exception {
+		final File file = new File("manual_tests/I0025851.m01");
+		assumeTrue(file.isFile());
+		final StratecScan scan = StratecScan.read(file);
+		final int[] image = scan.getSignedPixels();
+		// The calibration of typ/XCT3010.TYP
+		final ScaledImageData data = new ScaledImageData(image,
+			scan.header.picMatrixX, scan.header.picMatrixY, scan.header.voxelSize,
+			1.484, -337.3, false, false, false);
+		for (final String choice : CHOICES) {
+			final SelectROI traced = selectOrNull(data, choice, false);
+			final SelectROI labelled = selectOrNull(data, choice, true);
+			if (traced == null) {
+				assertNull(choice, labelled);
+				continue;
+			}
+			assertSameEdges(traced.edges, labelled.edges);
+			assertEquals(choice, traced.selection, labelled.selection);
+			assertArrayEquals(choice, traced.sieve, labelled.sieve);
+		}
+	}
+
+	private static void assertSameBones(final int[] image, final int width,
+		final int height, final String[] choices, final boolean cleaving)
+		throws ExecutionException
+	{
+		for (final String choice : choices) {
+			final SelectROI traced = select(image, width, height, choice, false,
+				cleaving);
+			final SelectROI labelled = select(image, width, height, choice, true,
+				cleaving);
+			assertSameEdges(traced.edges, labelled.edges);
+			assertEquals(choice, traced.selection, labelled.selection);
+			assertArrayEquals(choice, traced.sieve, labelled.sieve);
+		}
+	}
+
+	private static void assertSameEdges(final List<DetectedEdge> expected,
+		final List<DetectedEdge> actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).area, actual.get(i).area);
+			assertArrayEquals(expected.get(i).iit().toArray(), actual.get(i).iit()
+				.toArray());
+			assertArrayEquals(expected.get(i).jiit().toArray(), actual.get(i).jiit()
+				.toArray());
+		}
+	}
+
+	private static SelectROI select(final int[] image, final int width,
+		final int height, final String choice, final boolean labelling,
+		final boolean cleaving) throws ExecutionException
+	{
+		final ScaledImageData data = new ScaledImageData(image, width, height,
+			0.5, 1.0, 0.0, false, false, true);
+		return select(data, choice, labelling, cleaving);
+	}
+
+	// Null if there are too few bones for the choice
+	private static SelectROI selectOrNull(final ScaledImageData data,
+		final String choice, final boolean labelling) throws ExecutionException
+	{
+		try {
+			return select(data, choice, labelling, false);
+		}
+		catch (final ArrayIndexOutOfBoundsException e) {
+			return null;
+		}
+	}
+
+	private static SelectROI select(final ScaledImageData data,
+		final String choice, final boolean labelling, final boolean cleaving)
+		throws ExecutionException
+	{
+		final boolean[] top = { false, false, true, false };
+		final double[] thresholds = { -40, 40, 40, 45, 80, 200, 200, 550, 690,
+			1.0, 0.0 };
+		final String[] alignment = { choice, CHOICES[0], ROTATIONS[0], "Double",
+			labelling ? "Component_labelling" : "Edge_tracing" };
+		final boolean[] middle = { true, true, true, true, false, false, cleaving,
+			true, false, false };
+		final ImageAndAnalysisDetails details = new ImageAndAnalysisDetails(top,
+			thresholds, alignment, CHOICES, ROTATIONS, middle, 0.0, new boolean[8],
+			new int[] { 10, 3, 10, 10 });
+		final ImagePlus imp = new ImagePlus("", new ShortProcessor(data.width,
+			data.height));
+		return new SelectROI(data, details, imp, details.boneThreshold, false);
+	}
+
+	// A round bone of cortical density, with marrow within the given radius
+	private static void paintBone(final int[] image, final int width,
+		final int x, final int y, final int radius, final int marrow)
+	{
+		for (int i = 0; i < image.length; i++) {
+			final double d = Math.hypot(i % width - x, i / width - y);
+			if (d < radius) {
+				image[i] = d < marrow ? 100 : 1000;
+			}
+		}
+	}
+
+	private static ConnectedComponents components(final String[] rows,
+		final double threshold)
+	{
+		final int width = rows[0].length();
+		final double[] values = new double[width * rows.length];
+		for (int j = 0; j < rows.length; j++) {
+			for (int i = 0; i < width; i++) {
+				values[i + j * width] = rows[j].charAt(i) == '#' ? 1 : 0;
+			}
+		}
+		return new ConnectedComponents(PixelBuffer.wrap(values), width,
+			rows.length, threshold);
+	}
+}